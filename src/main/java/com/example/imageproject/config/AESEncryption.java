@@ -4,6 +4,10 @@ import org.springframework.context.annotation.Configuration;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.util.Base64;
 
@@ -13,19 +17,27 @@ public class AESEncryption {
     private static final String AES_ALGORITHM = "AES";
     private static final String AES_CIPHER_MODE = "AES/ECB/PKCS5Padding";
     private static final String SECRET_KEY = "1234567890123456";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Key KEY = new SecretKeySpec(SECRET_KEY.getBytes(StandardCharsets.UTF_8), AES_ALGORITHM);
+
+    // ECB keeps no per-message state, so doFinal leaves a cipher ready for the next message without init.
+    private final ThreadLocal<Cipher> encryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+    private final ThreadLocal<Cipher> decryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
 
     public byte[] encrypt(byte[] data) throws Exception {
-        Key key = new SecretKeySpec(SECRET_KEY.getBytes(), AES_ALGORITHM);
-        Cipher cipher = Cipher.getInstance(AES_CIPHER_MODE);
-        cipher.init(Cipher.ENCRYPT_MODE, key);
-        return cipher.doFinal(data);
+        return doFinal(encryptCipher, data);
+    }
+
+    public void encrypt(InputStream inputStream, OutputStream outputStream) throws Exception {
+        transform(encryptCipher, inputStream, outputStream);
     }
 
     public byte[] decrypt(byte[] encryptedData) throws Exception {
-        Key key = new SecretKeySpec(SECRET_KEY.getBytes(), AES_ALGORITHM);
-        Cipher cipher = Cipher.getInstance(AES_CIPHER_MODE);
-        cipher.init(Cipher.DECRYPT_MODE, key);
-        return cipher.doFinal(encryptedData);
+        return doFinal(decryptCipher, encryptedData);
+    }
+
+    public void decrypt(InputStream inputStream, OutputStream outputStream) throws Exception {
+        transform(decryptCipher, inputStream, outputStream);
     }
 
     public String encryptToBase64(byte[] data) throws Exception {
@@ -38,4 +50,39 @@ public class AESEncryption {
         return decrypt(encryptedData);
     }
 
+    private static byte[] doFinal(ThreadLocal<Cipher> cipher, byte[] data) throws GeneralSecurityException {
+        try {
+            return cipher.get().doFinal(data);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            cipher.remove();
+            throw e;
+        }
+    }
+
+    private static void transform(ThreadLocal<Cipher> cipherHolder, InputStream inputStream, OutputStream outputStream) throws Exception {
+        Cipher cipher = cipherHolder.get();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] output = new byte[cipher.getOutputSize(BUFFER_SIZE)];
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(output, 0, cipher.update(buffer, 0, read, output));
+            }
+            outputStream.write(output, 0, cipher.doFinal(output, 0));
+        } catch (Exception e) {
+            cipherHolder.remove();
+            throw e;
+        }
+    }
+
+    private static Cipher newCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance(AES_CIPHER_MODE);
+            cipher.init(mode, KEY);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES cipher is not available.", e);
+        }
+    }
+
 }
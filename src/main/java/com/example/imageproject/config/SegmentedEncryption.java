@@ -0,0 +1,528 @@
+package com.example.imageproject.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Authenticated at-rest format for image blobs: a header with a random per-blob data key wrapped by the master key,
+ * followed by fixed-size AES-GCM segments. Every segment is sealed on its own with a nonce made of a per-blob prefix,
+ * the segment index and a last-segment flag, so segments can be decrypted independently and reordering or truncation
+ * is detected.
+ */
+@Component
+public class SegmentedEncryption {
+
+    private static final byte[] MAGIC = {'I', 'M', 'G', 'S'};
+    private static final byte VERSION = 1;
+    private static final String AES_ALGORITHM = "AES";
+    private static final String GCM_CIPHER_MODE = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int DATA_KEY_LENGTH = 32;
+    private static final int HEADER_PREFIX_LENGTH = MAGIC.length + 1 + Integer.BYTES + NONCE_PREFIX_LENGTH;
+    static final int HEADER_LENGTH = HEADER_PREFIX_LENGTH + NONCE_LENGTH + DATA_KEY_LENGTH + TAG_LENGTH;
+
+    private static final int SEGMENTS_PER_THREAD = 2;
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(GCM_CIPHER_MODE);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM cipher is not available.", e);
+        }
+    });
+
+    private final SecretKey masterKey;
+    private final int segmentSize;
+    private final long parallelThreshold;
+    private final ForkJoinPool encryptionPool;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final KeyGenerator keyGenerator;
+
+    @Autowired
+    public SegmentedEncryption(@Value("${image.encryption.master-key}") String masterKey,
+                               @Value("${image.encryption.segment-size:65536}") int segmentSize,
+                               @Value("${image.encryption.parallelism:0}") int parallelism,
+                               @Value("${image.encryption.parallel-threshold:8388608}") long parallelThreshold) throws GeneralSecurityException {
+        byte[] masterKeyBytes = decodeMasterKey(masterKey);
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("image.encryption.segment-size must be at least 1024 bytes.");
+        }
+        this.masterKey = new SecretKeySpec(masterKeyBytes, AES_ALGORITHM);
+        this.segmentSize = segmentSize;
+        this.parallelThreshold = parallelThreshold;
+        this.encryptionPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.keyGenerator = KeyGenerator.getInstance(AES_ALGORITHM);
+        this.keyGenerator.init(DATA_KEY_LENGTH * 8, secureRandom);
+    }
+
+
+    private static byte[] decodeMasterKey(String masterKey) {
+        if (masterKey == null || masterKey.isBlank()) {
+            throw new IllegalStateException("image.encryption.master-key is not set, provide it with IMAGE_ENCRYPTION_MASTER_KEY.");
+        }
+        byte[] masterKeyBytes;
+        try {
+            masterKeyBytes = Base64.getDecoder().decode(masterKey.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("image.encryption.master-key is not valid base64.", e);
+        }
+        if (masterKeyBytes.length != DATA_KEY_LENGTH) {
+            throw new IllegalStateException("image.encryption.master-key must be a base64 encoded 256 bit key, got "
+                    + masterKeyBytes.length + " bytes.");
+        }
+        return masterKeyBytes;
+    }
+
+    public OutputStream encryptingStream(OutputStream outputStream) throws IOException {
+        Header header = newHeader();
+        outputStream.write(header.encoded);
+        return new EncryptingOutputStream(outputStream, header);
+    }
+
+    public void encrypt(InputStream inputStream, OutputStream outputStream) throws IOException {
+        try (OutputStream encryptingStream = encryptingStream(outputStream)) {
+            inputStream.transferTo(encryptingStream);
+        }
+    }
+
+    public void encrypt(InputStream inputStream, OutputStream outputStream, long plainSize) throws IOException {
+        if (plainSize < parallelThreshold || encryptionPool.getParallelism() < 2) {
+            encrypt(inputStream, outputStream);
+            return;
+        }
+        Header header = newHeader();
+        outputStream.write(header.encoded);
+        int window = encryptionPool.getParallelism() * SEGMENTS_PER_THREAD;
+        // one extra slot reads ahead, so the final segment is known before it is sealed
+        byte[][] plain = new byte[window + 1][header.segmentSize];
+        int[] plainLengths = new int[window + 1];
+        byte[][] encrypted = new byte[window + 1][header.segmentSize + TAG_LENGTH];
+        int[] encryptedLengths = new int[window + 1];
+        long segment = 0;
+        int count = 0;
+        boolean finished = false;
+        while (true) {
+            while (count <= window && !finished) {
+                int read = inputStream.readNBytes(plain[count], 0, header.segmentSize);
+                finished = read < header.segmentSize;
+                if (read > 0 || segment + count == 0) {
+                    plainLengths[count++] = read;
+                }
+            }
+            int process = finished ? count : window;
+            long firstSegment = segment;
+            int lastIndex = finished ? count - 1 : -1;
+            runParallel(process, i -> encryptedLengths[i] = encryptSegment(CIPHERS.get(), header, firstSegment + i, i == lastIndex,
+                    plain[i], plainLengths[i], encrypted[i]));
+            for (int i = 0; i < process; i++) {
+                outputStream.write(encrypted[i], 0, encryptedLengths[i]);
+            }
+            segment += process;
+            if (finished) {
+                break;
+            }
+            byte[] lookahead = plain[window];
+            plain[window] = plain[0];
+            plain[0] = lookahead;
+            plainLengths[0] = plainLengths[window];
+            count = 1;
+        }
+        outputStream.close();
+    }
+
+    public InputStream decryptingStream(InputStream inputStream) throws IOException {
+        return new DecryptingInputStream(inputStream, readHeader(inputStream));
+    }
+
+    public void decrypt(InputStream inputStream, OutputStream outputStream) throws IOException {
+        try (InputStream decryptingStream = decryptingStream(inputStream)) {
+            decryptingStream.transferTo(outputStream);
+        }
+    }
+
+    public long plainSize(SeekableByteChannel channel) throws IOException {
+        return plainSize(channel.size(), readHeader(channel).segmentSize);
+    }
+
+    public void decrypt(SeekableByteChannel channel, OutputStream outputStream) throws IOException {
+        decryptRange(channel, 0, plainSize(channel), outputStream);
+    }
+
+    public void decryptRange(SeekableByteChannel channel, long offset, long length, OutputStream outputStream) throws IOException {
+        Header header = readHeader(channel);
+        long plainSize = plainSize(channel.size(), header.segmentSize);
+        if (offset < 0 || length < 0 || offset + length > plainSize) {
+            throw new IOException("Range " + offset + "+" + length + " is outside of the " + plainSize + " byte content.");
+        }
+        if (length == 0) {
+            return;
+        }
+        int fullSegmentLength = header.segmentSize + TAG_LENGTH;
+        long lastSegment = segmentCount(channel.size(), header.segmentSize) - 1;
+        long end = offset + length;
+        long endSegment = (end - 1) / header.segmentSize;
+        int window = length >= parallelThreshold && encryptionPool.getParallelism() > 1
+                ? encryptionPool.getParallelism() * SEGMENTS_PER_THREAD
+                : 1;
+        byte[][] encrypted = new byte[window][fullSegmentLength];
+        int[] encryptedLengths = new int[window];
+        byte[][] plain = new byte[window][header.segmentSize];
+        int[] plainLengths = new int[window];
+        long segment = offset / header.segmentSize;
+        channel.position(HEADER_LENGTH + segment * fullSegmentLength);
+        while (segment <= endSegment) {
+            int count = (int) Math.min(window, endSegment - segment + 1);
+            for (int i = 0; i < count; i++) {
+                encryptedLengths[i] = readFully(channel, encrypted[i]);
+            }
+            long firstSegment = segment;
+            SegmentTask decryptTask = i -> plainLengths[i] = decryptSegment(CIPHERS.get(), header, firstSegment + i, firstSegment + i == lastSegment,
+                    encrypted[i], encryptedLengths[i], plain[i]);
+            if (count == 1) {
+                decryptTask.run(0);
+            } else {
+                runParallel(count, decryptTask);
+            }
+            for (int i = 0; i < count; i++) {
+                long segmentStart = (firstSegment + i) * header.segmentSize;
+                int from = (int) Math.max(0, offset - segmentStart);
+                int to = (int) Math.min(plainLengths[i], end - segmentStart);
+                outputStream.write(plain[i], from, to - from);
+            }
+            segment += count;
+        }
+    }
+
+    private static int readFully(SeekableByteChannel channel, byte[] target) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(target);
+        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            // keep reading until the segment or the blob ends
+        }
+        return buffer.position();
+    }
+
+    private void runParallel(int count, SegmentTask task) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            tasks.add(() -> {
+                task.run(index);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : encryptionPool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Image encryption was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        encryptionPool.shutdownNow();
+    }
+
+    static long plainSize(long encryptedSize, int segmentSize) throws IOException {
+        return encryptedSize - HEADER_LENGTH - segmentCount(encryptedSize, segmentSize) * TAG_LENGTH;
+    }
+
+    private static long segmentCount(long encryptedSize, int segmentSize) throws IOException {
+        long payload = encryptedSize - HEADER_LENGTH;
+        if (payload < TAG_LENGTH) {
+            throw new IOException("Encrypted image is truncated.");
+        }
+        long fullSegmentLength = segmentSize + TAG_LENGTH;
+        long segments = (payload + fullSegmentLength - 1) / fullSegmentLength;
+        if (payload - (segments - 1) * fullSegmentLength < TAG_LENGTH) {
+            throw new IOException("Encrypted image is truncated.");
+        }
+        return segments;
+    }
+
+
+    private Header newHeader() throws IOException {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        byte[] wrapNonce = new byte[NONCE_LENGTH];
+        secureRandom.nextBytes(noncePrefix);
+        secureRandom.nextBytes(wrapNonce);
+        SecretKey dataKey;
+        synchronized (keyGenerator) {
+            dataKey = keyGenerator.generateKey();
+        }
+        ByteBuffer encoded = ByteBuffer.allocate(HEADER_LENGTH)
+                .put(MAGIC)
+                .put(VERSION)
+                .putInt(segmentSize)
+                .put(noncePrefix)
+                .put(wrapNonce);
+        try {
+            Cipher cipher = newCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(TAG_LENGTH * 8, wrapNonce));
+            cipher.updateAAD(encoded.array(), 0, HEADER_PREFIX_LENGTH);
+            encoded.put(cipher.doFinal(dataKey.getEncoded()));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Wrapping the image data key failed.", e);
+        }
+        return new Header(encoded.array(), segmentSize, noncePrefix, dataKey);
+    }
+
+    private Header readHeader(InputStream inputStream) throws IOException {
+        byte[] encoded = inputStream.readNBytes(HEADER_LENGTH);
+        return parseHeader(encoded);
+    }
+
+    private Header readHeader(SeekableByteChannel channel) throws IOException {
+        ByteBuffer encoded = ByteBuffer.allocate(HEADER_LENGTH);
+        channel.position(0);
+        while (encoded.hasRemaining() && channel.read(encoded) > 0) {
+            // keep reading until the header is complete
+        }
+        return parseHeader(Arrays.copyOf(encoded.array(), encoded.position()));
+    }
+
+    private Header parseHeader(byte[] encoded) throws IOException {
+        if (encoded.length < HEADER_LENGTH || !Arrays.equals(MAGIC, Arrays.copyOf(encoded, MAGIC.length))) {
+            throw new IOException("Encrypted image has no valid header.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(encoded, MAGIC.length, HEADER_LENGTH - MAGIC.length);
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported encrypted image version: " + version);
+        }
+        int headerSegmentSize = buffer.getInt();
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        byte[] wrapNonce = new byte[NONCE_LENGTH];
+        buffer.get(noncePrefix).get(wrapNonce);
+        try {
+            Cipher cipher = newCipher();
+            cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_LENGTH * 8, wrapNonce));
+            cipher.updateAAD(encoded, 0, HEADER_PREFIX_LENGTH);
+            byte[] dataKey = cipher.doFinal(encoded, HEADER_PREFIX_LENGTH + NONCE_LENGTH, DATA_KEY_LENGTH + TAG_LENGTH);
+            return new Header(encoded, headerSegmentSize, noncePrefix, new SecretKeySpec(dataKey, AES_ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unwrapping the image data key failed.", e);
+        }
+    }
+
+    private static int encryptSegment(Cipher cipher, Header header, long segment, boolean last, byte[] plain, int length, byte[] encrypted) throws IOException {
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, header.dataKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce(header, segment, last)));
+            return cipher.doFinal(plain, 0, length, encrypted, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Encrypting image segment " + segment + " failed.", e);
+        }
+    }
+
+    private static int decryptSegment(Cipher cipher, Header header, long segment, boolean last, byte[] encrypted, int length, byte[] plain) throws IOException {
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, header.dataKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce(header, segment, last)));
+            return cipher.doFinal(encrypted, 0, length, plain, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Image segment " + segment + " is corrupt or was tampered with.", e);
+        }
+    }
+
+    private static byte[] nonce(Header header, long segment, boolean last) throws IOException {
+        if (segment > 0xFFFFFFFFL) {
+            throw new IOException("Encrypted image has too many segments.");
+        }
+        return ByteBuffer.allocate(NONCE_LENGTH)
+                .put(header.noncePrefix)
+                .putInt((int) segment)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+
+    private static Cipher newCipher() throws IOException {
+        try {
+            return Cipher.getInstance(GCM_CIPHER_MODE);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM cipher is not available.", e);
+        }
+    }
+
+
+    @FunctionalInterface
+    private interface SegmentTask {
+
+        void run(int index) throws IOException;
+    }
+
+    private static class Header {
+        private final byte[] encoded;
+        private final int segmentSize;
+        private final byte[] noncePrefix;
+        private final SecretKey dataKey;
+
+        private Header(byte[] encoded, int segmentSize, byte[] noncePrefix, SecretKey dataKey) {
+            this.encoded = encoded;
+            this.segmentSize = segmentSize;
+            this.noncePrefix = noncePrefix;
+            this.dataKey = dataKey;
+        }
+    }
+
+    private static class EncryptingOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+        private final Header header;
+        private final Cipher cipher;
+        private final byte[] plain;
+        private final byte[] encrypted;
+        private int count;
+        private long segment;
+        private boolean closed;
+
+        private EncryptingOutputStream(OutputStream outputStream, Header header) throws IOException {
+            this.outputStream = outputStream;
+            this.header = header;
+            this.cipher = newCipher();
+            this.plain = new byte[header.segmentSize];
+            this.encrypted = new byte[header.segmentSize + TAG_LENGTH];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                // a full segment is only sealed once more data arrives, so the last segment is always flagged as last
+                if (count == plain.length) {
+                    writeSegment(false);
+                }
+                int chunk = Math.min(length, plain.length - count);
+                System.arraycopy(bytes, offset, plain, count, chunk);
+                count += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeSegment(true);
+            outputStream.close();
+        }
+
+        private void writeSegment(boolean last) throws IOException {
+            outputStream.write(encrypted, 0, encryptSegment(cipher, header, segment, last, plain, count, encrypted));
+            segment++;
+            count = 0;
+        }
+    }
+
+    private static class DecryptingInputStream extends InputStream {
+        private final InputStream inputStream;
+        private final Header header;
+        private final Cipher cipher;
+        private byte[] current;
+        private byte[] next;
+        private int currentLength;
+        private final byte[] plain;
+        private int plainLength;
+        private int plainPosition;
+        private long segment;
+        private boolean finished;
+
+        private DecryptingInputStream(InputStream inputStream, Header header) throws IOException {
+            this.inputStream = inputStream;
+            this.header = header;
+            this.cipher = newCipher();
+            this.current = new byte[header.segmentSize + TAG_LENGTH];
+            this.next = new byte[header.segmentSize + TAG_LENGTH];
+            this.plain = new byte[header.segmentSize];
+            this.currentLength = inputStream.readNBytes(current, 0, current.length);
+            if (currentLength < TAG_LENGTH) {
+                throw new IOException("Encrypted image is truncated.");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (plainPosition == plainLength) {
+                if (finished) {
+                    return -1;
+                }
+                decryptNextSegment();
+            }
+            int chunk = Math.min(length, plainLength - plainPosition);
+            System.arraycopy(plain, plainPosition, bytes, offset, chunk);
+            plainPosition += chunk;
+            return chunk;
+        }
+
+        private void decryptNextSegment() throws IOException {
+            int nextLength = currentLength == current.length ? inputStream.readNBytes(next, 0, next.length) : 0;
+            boolean last = nextLength == 0;
+            if (!last && nextLength < TAG_LENGTH) {
+                throw new IOException("Encrypted image is truncated.");
+            }
+            plainLength = decryptSegment(cipher, header, segment, last, current, currentLength, plain);
+            plainPosition = 0;
+            segment++;
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            currentLength = nextLength;
+            finished = last;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.imageproject.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+@Component
+@Slf4j
+public class SequenceInitializer implements SmartInitializingSingleton {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public SequenceInitializer(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // Runs once every singleton, the EntityManagerFactory and its schema update included, is initialized, and before
+    // the refresh finishes and starts the web server, so no request can insert with an id that is already taken.
+    @Override
+    public void afterSingletonsInstantiated() {
+        alignSequence("image_seq", "images");
+        alignSequence("image_import_checkpoint_seq", "image_import_checkpoint");
+    }
+
+    // Rows inserted before the switch from IDENTITY keep their ids, so the pooled sequence has to start above them.
+    private void alignSequence(String sequence, String table) {
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM " + table, Long.class);
+        Long lastValue = jdbcTemplate.queryForObject("SELECT last_value FROM " + sequence, Long.class);
+        if (maxId != null && lastValue != null && maxId > lastValue) {
+            jdbcTemplate.queryForObject("SELECT setval('" + sequence + "', ?)", Long.class, maxId);
+            log.info("Sequence " + sequence + " moved above the existing ids of " + table + ": " + maxId);
+        }
+    }
+}
@@ -1,17 +1,27 @@
 package com.example.imageproject.controller;
 
 
+import com.example.imageproject.config.CustomUserRole;
+import com.example.imageproject.config.SpringWebConfig;
 import com.example.imageproject.domain.Image;
-import com.example.imageproject.dto.ImageInfo;
+import com.example.imageproject.dto.ImageCacheStats;
+import com.example.imageproject.dto.ImageDownload;
+import com.example.imageproject.dto.ImageImportJobInfo;
+import com.example.imageproject.dto.ImageImportReport;
 import com.example.imageproject.exception.AuthenticationExceptionImpl;
+import com.example.imageproject.exception.ImageNotBelongsToTheUserException;
+import com.example.imageproject.service.ImageImportJobService;
+import com.example.imageproject.service.ImageImportService;
 import com.example.imageproject.service.ImageService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.annotation.Secured;
@@ -19,8 +29,12 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api")
@@ -28,10 +42,17 @@ import java.io.IOException;
 public class ImageController {
 
     private ImageService imageService;
+    private ImageImportService imageImportService;
+    private ImageImportJobService imageImportJobService;
+    private long exportTimeoutMs;
 
     @Autowired
-    public ImageController(ImageService imageService) {
+    public ImageController(ImageService imageService, ImageImportService imageImportService, ImageImportJobService imageImportJobService,
+                           @Value("${image.export.request-timeout-ms:3600000}") long exportTimeoutMs) {
         this.imageService = imageService;
+        this.imageImportService = imageImportService;
+        this.imageImportJobService = imageImportJobService;
+        this.exportTimeoutMs = exportTimeoutMs;
     }
 
 
@@ -40,12 +61,14 @@ public class ImageController {
     @ApiResponse(responseCode = "201", description = "Customer's image is saved by customer.")
     @SecurityRequirement(name = "basicAuth")
     @Secured({"ROLE_ADMIN", "ROLE_USER"})
-    public ResponseEntity<String> uploadOnePicture(@RequestParam("file") MultipartFile file) {
+    public CompletableFuture<ResponseEntity<String>> uploadOnePicture(@RequestParam("file") MultipartFile file) {
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         log.info("Http request, POST image /api/files, with: " + userDetails.getUsername());
-        String message = imageService.uploadOnePicture(file, userDetails.getUsername());
-        log.info("POST data image of repository from /api/files, with: " + userDetails.getUsername());
-        return ResponseEntity.ok(message);
+        return imageService.uploadOnePicture(file, userDetails.getUsername())
+                .thenApply(message -> {
+                    log.info("POST data image of repository from /api/files, with: " + userDetails.getUsername());
+                    return ResponseEntity.ok(message);
+                });
     }
 
 
@@ -54,36 +77,120 @@ public class ImageController {
     @ApiResponse(responseCode = "201", description = "Customer's image is saved by admin.")
     @SecurityRequirement(name = "basicAuth")
     @Secured({"ROLE_ADMIN"})
-    public ResponseEntity<String> uploadPictureFromAdmin(@PathVariable("username") String username, @RequestParam("file") MultipartFile file) throws IOException {
+    public CompletableFuture<ResponseEntity<String>> uploadPictureFromAdmin(@PathVariable("username") String username, @RequestParam("file") MultipartFile file) throws IOException {
         log.info("Http request, POST image /api/files/{username}, with: " + username);
-        String message = imageService.uploadOnePicture(file, username);
-        log.info("POST data image from repository/api/files/{username}, with: " + username);
-        return ResponseEntity.ok(message);
+        return imageService.uploadOnePicture(file, username)
+                .thenApply(message -> {
+                    log.info("POST data image from repository/api/files/{username}, with: " + username);
+                    return ResponseEntity.ok(message);
+                });
+    }
+
+    @PostMapping(value = "/files/multi", consumes = {"multipart/form-data"})
+    @Operation(summary = "Saving more images of the customer in one request")
+    @ApiResponse(responseCode = "200", description = "Customer's images are saved by customer.")
+    @SecurityRequirement(name = "basicAuth")
+    @Secured({"ROLE_ADMIN", "ROLE_USER"})
+    public ResponseEntity<ImageImportReport> uploadMultiplePictures(@RequestParam("files") List<MultipartFile> files) {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        log.info("Http request, POST images /api/files/multi, with: " + userDetails.getUsername());
+        ImageImportReport report = imageImportService.importUploads(files, userDetails.getUsername());
+        log.info("POST data images of repository from /api/files/multi, with: " + userDetails.getUsername());
+        return ResponseEntity.ok(report);
+    }
+
+    @PostMapping(value = "/files/multi/{username}", consumes = {"multipart/form-data"})
+    @Operation(summary = "Saving more images of the customer in one request by admin")
+    @ApiResponse(responseCode = "200", description = "Customer's images are saved by admin.")
+    @SecurityRequirement(name = "basicAuth")
+    @Secured({"ROLE_ADMIN"})
+    public ResponseEntity<ImageImportReport> uploadMultiplePicturesFromAdmin(@PathVariable("username") String username, @RequestParam("files") List<MultipartFile> files) {
+        log.info("Http request, POST images /api/files/multi/{username}, with: " + username);
+        ImageImportReport report = imageImportService.importUploads(files, username);
+        log.info("POST data images of repository from /api/files/multi/{username}, with: " + username);
+        return ResponseEntity.ok(report);
     }
 
     @PostMapping(value = "/files/upload-batch", consumes = {"multipart/form-data"})
     @Operation(summary = "Saving customer's image")
-    @ApiResponse(responseCode = "201", description = "Customer's images are saved by customer.")
+    @ApiResponse(responseCode = "202", description = "Import job of customer's images is started by customer.")
     @SecurityRequirement(name = "basicAuth")
     @Secured({"ROLE_ADMIN", "ROLE_USER"})
-    public ResponseEntity<String> uploadMorePicture(@RequestParam("directory") String directoryPath) throws AuthenticationExceptionImpl {
+    public ResponseEntity<ImageImportJobInfo> uploadMorePicture(@RequestParam("directory") String directoryPath,
+                                                                @RequestParam(value = "include", defaultValue = "*") String include,
+                                                                @RequestParam(value = "recursive", defaultValue = "false") boolean recursive) throws AuthenticationExceptionImpl {
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         log.info("Http request, POST image /api/files/upload-batch, with: " + userDetails.getUsername());
-        String message = imageService.saveImagesFromDirectory(directoryPath, userDetails.getUsername());
-        log.info("POST data images of repository from /api/files/upload-batch, with: " + userDetails.getUsername());
-        return ResponseEntity.ok(message);
+        ImageImportJobInfo jobInfo = imageImportJobService.submit(directoryPath, include, recursive, userDetails.getUsername());
+        log.info("POST import job " + jobInfo.getJobId() + " from /api/files/upload-batch, with: " + userDetails.getUsername());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(jobInfo);
     }
 
     @PostMapping(value = "/files/upload-batch/{username}", consumes = {"multipart/form-data"})
     @Operation(summary = "Saving customer's image")
-    @ApiResponse(responseCode = "201", description = "Customer's images are saved by admin.")
+    @ApiResponse(responseCode = "202", description = "Import job of customer's images is started by admin.")
     @SecurityRequirement(name = "basicAuth")
     @Secured({"ROLE_ADMIN"})
-    public ResponseEntity<String> uploadMorePictureFromAdmin(@PathVariable("username") String username, @RequestParam("directory") String directoryPath) throws AuthenticationExceptionImpl {
+    public ResponseEntity<ImageImportJobInfo> uploadMorePictureFromAdmin(@PathVariable("username") String username, @RequestParam("directory") String directoryPath,
+                                                                         @RequestParam(value = "include", defaultValue = "*") String include,
+                                                                         @RequestParam(value = "recursive", defaultValue = "false") boolean recursive) throws AuthenticationExceptionImpl {
         log.info("Http request, POST image /api/files/upload-batch/{username}, with: " + username);
-        String message = imageService.saveImagesFromDirectory(directoryPath, username);
-        log.info("POST data images of repository from /api/files/upload-batch/{username}, with: " + username);
-        return ResponseEntity.ok(message);
+        ImageImportJobInfo jobInfo = imageImportJobService.submit(directoryPath, include, recursive, username);
+        log.info("POST import job " + jobInfo.getJobId() + " from /api/files/upload-batch/{username}, with: " + username);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(jobInfo);
+    }
+
+    @GetMapping(value = "/files/upload-batch/jobs/{jobId}")
+    @Operation(summary = "Progress of a batch image import")
+    @ApiResponse(responseCode = "200", description = "Progress of the import job is returned.")
+    @SecurityRequirement(name = "basicAuth")
+    @Secured({"ROLE_ADMIN", "ROLE_USER"})
+    public ResponseEntity<ImageImportJobInfo> getImportJob(@PathVariable("jobId") String jobId) {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        log.info("Http request, GET import job /api/files/upload-batch/jobs/{jobId}, with: " + userDetails.getUsername());
+        ImageImportJobInfo jobInfo = imageImportJobService.getJob(jobId, userDetails.getUsername(), isAdmin(userDetails));
+        return ResponseEntity.ok(jobInfo);
+    }
+
+    @GetMapping(value = "/files/upload-batch/jobs/{jobId}/report", produces = "application/x-ndjson")
+    @Operation(summary = "Per-file report of a batch image import")
+    @ApiResponse(responseCode = "200", description = "Result of every imported file is streamed, one JSON object per line.")
+    @SecurityRequirement(name = "basicAuth")
+    @Secured({"ROLE_ADMIN", "ROLE_USER"})
+    public ResponseEntity<StreamingResponseBody> getImportJobReport(@PathVariable("jobId") String jobId) {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        log.info("Http request, GET import job report /api/files/upload-batch/jobs/{jobId}/report, with: " + userDetails.getUsername());
+        boolean admin = isAdmin(userDetails);
+        imageImportJobService.getJob(jobId, userDetails.getUsername(), admin);
+        return ResponseEntity.ok()
+                .body(outputStream -> imageImportJobService.writeReport(jobId, userDetails.getUsername(), admin, outputStream));
+    }
+
+    @DeleteMapping(value = "/files/upload-batch/jobs/{jobId}")
+    @Operation(summary = "Cancelling a batch image import")
+    @ApiResponse(responseCode = "200", description = "Import job is cancelled.")
+    @SecurityRequirement(name = "basicAuth")
+    @Secured({"ROLE_ADMIN", "ROLE_USER"})
+    public ResponseEntity<ImageImportJobInfo> cancelImportJob(@PathVariable("jobId") String jobId) {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        log.info("Http request, DELETE import job /api/files/upload-batch/jobs/{jobId}, with: " + userDetails.getUsername());
+        ImageImportJobInfo jobInfo = imageImportJobService.cancel(jobId, userDetails.getUsername(), isAdmin(userDetails));
+        return ResponseEntity.ok(jobInfo);
+    }
+
+    @GetMapping(value = "/files/cache")
+    @Operation(summary = "Statistics of the decrypted image cache")
+    @ApiResponse(responseCode = "200", description = "Hit, miss and eviction counters of the cache are returned.")
+    @SecurityRequirement(name = "basicAuth")
+    @Secured({"ROLE_ADMIN"})
+    public ResponseEntity<ImageCacheStats> getCacheStats() {
+        log.info("Http request, GET image cache statistics /api/files/cache");
+        return ResponseEntity.ok(imageService.getCacheStats());
+    }
+
+    private boolean isAdmin(UserDetails userDetails) {
+        return userDetails.getAuthorities().stream()
+                .anyMatch(authority -> CustomUserRole.ROLE_ADMIN.name().equals(authority.getAuthority()));
     }
 
 
@@ -92,22 +199,54 @@ public class ImageController {
     @ApiResponse(responseCode = "201", description = "Customer's image is downloaded by customer.")
     @SecurityRequirement(name = "basicAuth")
     @Secured({"ROLE_ADMIN", "ROLE_USER"})
-    public ResponseEntity<ByteArrayResource> downloadOnePicture(@PathVariable Long fileName) throws AuthenticationExceptionImpl {
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadOnePicture(@PathVariable Long fileName,
+                                                                                       @RequestParam(value = "size", required = false) Integer size,
+                                                                                       @RequestParam(value = "w", required = false) Integer width,
+                                                                                       @RequestParam(value = "h", required = false) Integer height,
+                                                                                       @RequestParam(value = "fit", defaultValue = "contain") String fit,
+                                                                                       @RequestHeader HttpHeaders requestHeaders) throws AuthenticationExceptionImpl {
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         log.info("Http request, GET data image /api/file/{fileName}, with: " + userDetails.getUsername());
-        ImageInfo imageInfo = imageService.getImageById(fileName, userDetails.getUsername());
+        if (width != null || height != null) {
+            return imageService.getResizedImage(fileName, userDetails.getUsername(), width, height, fit)
+                    .thenApply(imageDownload -> {
+                        log.info("GET resized image of repository from /api/file/{fileName}, with: " + userDetails.getUsername());
+                        return downloadResponse(imageDownload, requestHeaders, MediaType.IMAGE_JPEG, fileName + ".jpg");
+                    });
+        }
+        ImageDownload imageDownload = imageService.getImageById(fileName, userDetails.getUsername(), size);
 
-        if (imageInfo == null) {
-            return ResponseEntity.notFound().build();
+        if (imageDownload == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
         }
 
-        ByteArrayResource resource = new ByteArrayResource(imageInfo.getData());
         log.info("GET data image of repository from /api/file/{fileName}, with: " + userDetails.getUsername());
+        return CompletableFuture.completedFuture(downloadResponse(imageDownload, requestHeaders, MediaType.IMAGE_JPEG, fileName + ".jpg"));
+    }
 
-        return ResponseEntity.ok()
-                .contentType(MediaType.IMAGE_JPEG)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + ".jpg\"")
-                .body(resource);
+    @DeleteMapping(value = "/file/{fileName}")
+    @Operation(summary = "Deleting customer's image")
+    @ApiResponse(responseCode = "200", description = "Customer's image is deleted by customer.")
+    @SecurityRequirement(name = "basicAuth")
+    @Secured({"ROLE_ADMIN", "ROLE_USER"})
+    public ResponseEntity<String> deleteOnePicture(@PathVariable Long fileName) throws ImageNotBelongsToTheUserException {
+        UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        log.info("Http request, DELETE image /api/file/{fileName}, with: " + userDetails.getUsername());
+        String message = imageService.deleteImage(fileName, userDetails.getUsername());
+        log.info("DELETE image of repository from /api/file/{fileName}, with: " + userDetails.getUsername());
+        return ResponseEntity.ok(message);
+    }
+
+    @DeleteMapping(value = "/file/{fileName}/{username}")
+    @Operation(summary = "Deleting customer's image by admin")
+    @ApiResponse(responseCode = "200", description = "Customer's image is deleted by admin.")
+    @SecurityRequirement(name = "basicAuth")
+    @Secured({"ROLE_ADMIN"})
+    public ResponseEntity<String> deleteOnePictureFromAdmin(@PathVariable Long fileName, @PathVariable String username) throws ImageNotBelongsToTheUserException {
+        log.info("Http request, DELETE image /api/file/{fileName}/{username}, with: " + username);
+        String message = imageService.deleteImage(fileName, username);
+        log.info("DELETE image of repository from /api/file/{fileName}/{username}, with: " + username);
+        return ResponseEntity.ok(message);
     }
 
     @GetMapping(value = "/file/{fileName}/{username}")
@@ -115,21 +254,28 @@ public class ImageController {
     @ApiResponse(responseCode = "201", description = "Customer's image is downloaded by admin.")
     @SecurityRequirement(name = "basicAuth")
     @Secured({"ROLE_ADMIN"})
-    public ResponseEntity<ByteArrayResource> downloadOnePicture(@PathVariable Long imageId, @PathVariable String username) throws AuthenticationExceptionImpl {
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> downloadOnePicture(@PathVariable("fileName") Long imageId, @PathVariable String username,
+                                                                                       @RequestParam(value = "size", required = false) Integer size,
+                                                                                       @RequestParam(value = "w", required = false) Integer width,
+                                                                                       @RequestParam(value = "h", required = false) Integer height,
+                                                                                       @RequestParam(value = "fit", defaultValue = "contain") String fit,
+                                                                                       @RequestHeader HttpHeaders requestHeaders) throws AuthenticationExceptionImpl {
         log.info("Http request, GET data image /api/file/{fileName}/{username}, with: " + username);
-        ImageInfo imageInfo = imageService.getImageById(imageId, username);
+        if (width != null || height != null) {
+            return imageService.getResizedImage(imageId, username, width, height, fit)
+                    .thenApply(imageDownload -> {
+                        log.info("GET resized image of repository from /api/file/{fileName}/{username}, with: " + username);
+                        return downloadResponse(imageDownload, requestHeaders, MediaType.IMAGE_JPEG, imageId + ".jpg");
+                    });
+        }
+        ImageDownload imageDownload = imageService.getImageById(imageId, username, size);
 
-        if (imageInfo == null) {
-            return ResponseEntity.notFound().build();
+        if (imageDownload == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
         }
 
-        ByteArrayResource resource = new ByteArrayResource(imageInfo.getData());
         log.info("GET data image of repository from /api/file/{fileName}/{username}, with: " + username);
-
-        return ResponseEntity.ok()
-                .contentType(MediaType.IMAGE_JPEG)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + imageId + ".jpg\"")
-                .body(resource);
+        return CompletableFuture.completedFuture(downloadResponse(imageDownload, requestHeaders, MediaType.IMAGE_JPEG, imageId + ".jpg"));
     }
 
     @GetMapping("/file")
@@ -137,19 +283,13 @@ public class ImageController {
     @ApiResponse(responseCode = "201", description = "Customer's ZIP file is downloaded by customer.")
     @SecurityRequirement(name = "basicAuth")
     @Secured({"ROLE_ADMIN", "ROLE_USER"})
-    public ResponseEntity<byte[]> downloadZIPFile() throws AuthenticationExceptionImpl {
+    public ResponseEntity<StreamingResponseBody> downloadZIPFile(@RequestHeader HttpHeaders requestHeaders, HttpServletRequest request) throws AuthenticationExceptionImpl {
         UserDetails userDetails = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         log.info("Http request, GET data image /api/file, with: " + userDetails.getUsername());
-        byte[] zipData = imageService.getImages(userDetails.getUsername());
+        request.setAttribute(SpringWebConfig.ASYNC_TIMEOUT_ATTRIBUTE, exportTimeoutMs);
+        ImageDownload zipData = imageService.getImages(userDetails.getUsername());
         log.info("GET data image of repository from /api/file, with: " + userDetails.getUsername());
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-        headers.setContentDispositionFormData("attachment", "images.zip");
-
-        return ResponseEntity.ok()
-                .headers(headers)
-                .body(zipData);
+        return downloadResponse(zipData, requestHeaders, MediaType.APPLICATION_OCTET_STREAM, "images.zip");
     }
 
 
@@ -158,13 +298,65 @@ public class ImageController {
     @ApiResponse(responseCode = "201", description = "Customer's ZIP file is downloaded by admin.")
     @SecurityRequirement(name = "basicAuth")
     @Secured({"ROLE_ADMIN"})
-    public ResponseEntity<byte[]> downloadZIPFileByAdmin(@PathVariable String username) throws AuthenticationExceptionImpl {
+    public ResponseEntity<StreamingResponseBody> downloadZIPFileByAdmin(@PathVariable String username, @RequestHeader HttpHeaders requestHeaders,
+                                                                        HttpServletRequest request) throws AuthenticationExceptionImpl {
         log.info("Http request, GET data image /api/file/{username}, with: " + username);
-        byte[] zipData = imageService.getImages(username);
+        request.setAttribute(SpringWebConfig.ASYNC_TIMEOUT_ATTRIBUTE, exportTimeoutMs);
+        ImageDownload zipData = imageService.getImages(username);
         log.info("GET data image of repository from /api/file, with: " + username);
+        return downloadResponse(zipData, requestHeaders, MediaType.APPLICATION_OCTET_STREAM, "images.zip");
+    }
+
+    private static ResponseEntity<StreamingResponseBody> downloadResponse(ImageDownload download, HttpHeaders requestHeaders,
+                                                                          MediaType contentType, String fileName) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(contentType);
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+        if (download.getETag() == null || download.getContentLength() == null) {
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(outputStream -> download.getWriter().writeTo(0, Long.MAX_VALUE, outputStream));
+        }
+
+        long contentLength = download.getContentLength();
+        headers.setETag(download.getETag());
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+        if (ifNoneMatch.contains(download.getETag()) || ifNoneMatch.contains("*")) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+
+        HttpRange range = singleRange(requestHeaders, download.getETag());
+        if (range != null) {
+            long start = range.getRangeStart(contentLength);
+            long end = range.getRangeEnd(contentLength);
+            if (start >= contentLength || start > end) {
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + contentLength);
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+            }
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + contentLength);
+            headers.setContentLength(end - start + 1);
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .headers(headers)
+                    .body(outputStream -> download.getWriter().writeTo(start, end - start + 1, outputStream));
+        }
+
+        headers.setContentLength(contentLength);
         return ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"images.zip\"")
-                .body(zipData);
+                .headers(headers)
+                .body(outputStream -> download.getWriter().writeTo(0, contentLength, outputStream));
+    }
+
+    private static HttpRange singleRange(HttpHeaders requestHeaders, String eTag) {
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(eTag)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = requestHeaders.getRange();
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 }
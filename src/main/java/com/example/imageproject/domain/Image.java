@@ -8,21 +8,40 @@ import lombok.NoArgsConstructor;
 import javax.persistence.*;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import java.time.LocalDateTime;
 
 @NoArgsConstructor
 @AllArgsConstructor
 @Data
 @Builder
 @Entity
-@Table(name = "images")
+@Table(name = "images", indexes = @Index(name = "idx_images_custom_user_id_id", columnList = "custom_user_id, id"))
 public class Image {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_seq")
+    @SequenceGenerator(name = "image_seq", sequenceName = "image_seq", allocationSize = 50)
     private Long id;
 
     @Lob
     private byte[] data;
 
+    @Column(name = "blob_key", length = 64)
+    private String blobKey;
+
+    @Column(name = "format_name", length = 16)
+    private String formatName;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "encryption", length = 32)
+    private ImageEncryption encryption;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "image_content_id")
+    private ImageContent content;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "custom_user_id")
     private CustomUser customUser;
@@ -0,0 +1,57 @@
+package com.example.imageproject.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+@Entity
+@Table(name = "image_content",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"custom_user_id", "sha256"}))
+public class ImageContent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_content_seq")
+    @SequenceGenerator(name = "image_content_seq", sequenceName = "image_content_seq", allocationSize = 1)
+    private Long id;
+
+    @Column(name = "custom_user_id", nullable = false)
+    private Long customUserId;
+
+    @Column(name = "sha256", nullable = false, length = 64)
+    private String sha256;
+
+    @Column(name = "blob_key", nullable = false, length = 64)
+    private String blobKey;
+
+    @Column(name = "format_name", length = 16)
+    private String formatName;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "encryption", length = 32)
+    private ImageEncryption encryption;
+
+    @Column(name = "stored_size")
+    private long storedSize;
+
+    @Column(name = "plain_size")
+    private Long plainSize;
+
+    @Column(name = "crc32")
+    private Long crc32;
+
+    @Column(name = "long_edge")
+    private Integer longEdge;
+
+    @Column(name = "reference_count")
+    private int referenceCount;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
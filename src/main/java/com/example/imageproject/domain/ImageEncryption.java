@@ -0,0 +1,6 @@
+package com.example.imageproject.domain;
+
+public enum ImageEncryption {
+    AES_ECB,
+    AES_GCM_SEGMENTED
+}
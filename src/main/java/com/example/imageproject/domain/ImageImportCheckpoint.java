@@ -0,0 +1,35 @@
+package com.example.imageproject.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+@Entity
+@Table(name = "image_import_checkpoint",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"custom_user_id", "path_hash"}))
+public class ImageImportCheckpoint {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_import_checkpoint_seq")
+    @SequenceGenerator(name = "image_import_checkpoint_seq", sequenceName = "image_import_checkpoint_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "custom_user_id", nullable = false)
+    private Long customUserId;
+
+    @Column(name = "path_hash", nullable = false, length = 64)
+    private String pathHash;
+
+    @Column(name = "path", length = 4096)
+    private String path;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+}
@@ -0,0 +1,51 @@
+package com.example.imageproject.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+@Entity
+@Table(name = "image_rendition",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"image_content_id", "long_edge"}))
+public class ImageRendition {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_rendition_seq")
+    @SequenceGenerator(name = "image_rendition_seq", sequenceName = "image_rendition_seq", allocationSize = 1)
+    private Long id;
+
+    @Column(name = "image_content_id", nullable = false)
+    private Long contentId;
+
+    @Column(name = "long_edge", nullable = false)
+    private int longEdge;
+
+    @Column(name = "blob_key", nullable = false, length = 64)
+    private String blobKey;
+
+    @Column(name = "format_name", length = 16)
+    private String formatName;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "encryption", length = 32)
+    private ImageEncryption encryption;
+
+    @Column(name = "stored_size")
+    private long storedSize;
+
+    @Column(name = "plain_size")
+    private long plainSize;
+
+    @Column(name = "crc32")
+    private long crc32;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,30 @@
+package com.example.imageproject.dto;
+
+import com.example.imageproject.domain.ImageEncryption;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class ImageArchiveEntry {
+
+    private Long id;
+
+    private LocalDateTime createdAt;
+
+    private String formatName;
+
+    private String blobKey;
+
+    private ImageEncryption encryption;
+
+    private Long plainSize;
+
+    private Long crc32;
+}
@@ -0,0 +1,27 @@
+package com.example.imageproject.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class ImageCacheStats {
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private int entries;
+
+    private long bytes;
+
+    private long maxBytes;
+
+    private boolean offHeap;
+}
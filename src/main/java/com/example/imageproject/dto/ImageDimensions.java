@@ -0,0 +1,23 @@
+package com.example.imageproject.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class ImageDimensions {
+
+    private int width;
+
+    private int height;
+
+    private String formatName;
+
+    public boolean fitsWithin(int maxWidth, int maxHeight) {
+        return width <= maxWidth && height <= maxHeight;
+    }
+}
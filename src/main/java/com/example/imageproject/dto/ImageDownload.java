@@ -0,0 +1,28 @@
+package com.example.imageproject.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class ImageDownload {
+
+    private String eTag;
+
+    private Long contentLength;
+
+    private RangeWriter writer;
+
+
+    @FunctionalInterface
+    public interface RangeWriter {
+        void writeTo(long offset, long length, OutputStream outputStream) throws IOException;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.imageproject.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class ImageImportFileResult {
+
+    private String fileName;
+
+    private ImageImportStatus status;
+
+    private String message;
+
+    private Long imageId;
+}
@@ -0,0 +1,58 @@
+package com.example.imageproject.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class ImageImportJobInfo {
+
+    private String jobId;
+
+    private String username;
+
+    private String directoryPath;
+
+    private String include;
+
+    private boolean recursive;
+
+    private ImageImportJobStatus status;
+
+    private Integer total;
+
+    private int processed;
+
+    private int succeeded;
+
+    private int skipped;
+
+    private int failed;
+
+    private int alreadyImported;
+
+    private long bytesProcessed;
+
+    private long bytesPerSecond;
+
+    private Long etaSeconds;
+
+    private LocalDateTime submittedAt;
+
+    private LocalDateTime startedAt;
+
+    private LocalDateTime finishedAt;
+
+    private String error;
+
+    private List<ImageImportFileResult> issues;
+
+    private int omittedIssues;
+}
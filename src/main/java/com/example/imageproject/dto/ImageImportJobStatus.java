@@ -0,0 +1,10 @@
+package com.example.imageproject.dto;
+
+public enum ImageImportJobStatus {
+
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED
+}
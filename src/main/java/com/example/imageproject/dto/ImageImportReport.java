@@ -0,0 +1,37 @@
+package com.example.imageproject.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@NoArgsConstructor
+@Data
+public class ImageImportReport {
+
+    private int succeeded;
+
+    private int skipped;
+
+    private int failed;
+
+    private int alreadyImported;
+
+    private List<ImageImportFileResult> results = new ArrayList<>();
+
+    public void add(ImageImportFileResult result) {
+        results.add(result);
+        switch (result.getStatus()) {
+            case UPLOADED:
+            case RESIZED:
+                succeeded++;
+                break;
+            case SKIPPED:
+                skipped++;
+                break;
+            default:
+                failed++;
+        }
+    }
+}
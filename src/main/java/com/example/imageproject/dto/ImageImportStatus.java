@@ -0,0 +1,9 @@
+package com.example.imageproject.dto;
+
+public enum ImageImportStatus {
+
+    UPLOADED,
+    RESIZED,
+    SKIPPED,
+    FAILED
+}
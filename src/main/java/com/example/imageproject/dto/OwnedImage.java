@@ -0,0 +1,32 @@
+package com.example.imageproject.dto;
+
+import com.example.imageproject.domain.ImageEncryption;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class OwnedImage {
+
+    private Long id;
+
+    private Long customUserId;
+
+    private String blobKey;
+
+    private ImageEncryption encryption;
+
+    private Long contentId;
+
+    private String sha256;
+
+    private Long plainSize;
+
+    private Integer longEdge;
+
+    private String formatName;
+}
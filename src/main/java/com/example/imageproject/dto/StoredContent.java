@@ -1,6 +1,5 @@
 package com.example.imageproject.dto;
 
-import com.example.imageproject.domain.CustomUser;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -10,9 +9,13 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 @Data
 @Builder
-public class ImageInfo {
+public class StoredContent {
 
-    private byte[] data;
+    private String blobKey;
 
-    private CustomUser customUser;
+    private long plainSize;
+
+    private long crc32;
+
+    private String sha256;
 }
@@ -0,0 +1,15 @@
+package com.example.imageproject.exception;
+
+public class ConversionQueueFullException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public ConversionQueueFullException(long retryAfterSeconds) {
+        super("Image conversion queue is full, retry after " + retryAfterSeconds + " seconds.");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.imageproject.exception;
+
+public class ConversionTimeoutException extends RuntimeException {
+
+    private final long timeoutSeconds;
+
+    public ConversionTimeoutException(long timeoutSeconds) {
+        super("Image conversion did not finish in " + timeoutSeconds + " seconds.");
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public long getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+}
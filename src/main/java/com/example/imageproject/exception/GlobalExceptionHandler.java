@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonParseException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.MessageSource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -206,6 +207,37 @@ public class GlobalExceptionHandler {
 
 
 
+    @ExceptionHandler(ImportJobNotFoundException.class)
+    public ResponseEntity<ApiError> handleImportJobNotFoundException(ImportJobNotFoundException ex) {
+        log.error("Not found error: ", ex);
+
+        ApiError body = new ApiError("NOT_FOUND_ERROR", "Import job not found error.", ex.getLocalizedMessage());
+
+        return new ResponseEntity<>(body, HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(ConversionQueueFullException.class)
+    public ResponseEntity<ApiError> handleConversionQueueFullException(ConversionQueueFullException ex) {
+        log.warn("Image conversion queue is full error: ", ex);
+
+        ApiError body = new ApiError("CONVERSION_QUEUE_FULL_ERROR", "Too many images are being converted, please retry later.", ex.getLocalizedMessage());
+
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(body);
+    }
+
+    @ExceptionHandler(ConversionTimeoutException.class)
+    public ResponseEntity<ApiError> handleConversionTimeoutException(ConversionTimeoutException ex) {
+        log.error("Image conversion timeout error: ", ex);
+
+        ApiError body = new ApiError("CONVERSION_TIMEOUT_ERROR", "Image conversion took too long.", ex.getLocalizedMessage());
+
+        return new ResponseEntity<>(body, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+
+
     @ExceptionHandler(Throwable.class)
     public ResponseEntity<ApiError> defaultErrorHandler(Throwable t) {
         log.error("An unexpected error occurred: ", t);
@@ -0,0 +1,15 @@
+package com.example.imageproject.exception;
+
+public class ImportJobNotFoundException extends RuntimeException {
+
+    private final String jobId;
+
+    public ImportJobNotFoundException(String jobId) {
+        super("Import job not found: " + jobId);
+        this.jobId = jobId;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.imageproject.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+public interface BlobStore {
+
+    String put(ContentWriter contentWriter) throws IOException;
+
+    InputStream open(String key) throws IOException;
+
+    SeekableByteChannel openChannel(String key) throws IOException;
+
+    long size(String key) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    Stream<String> keys(Instant modifiedBefore) throws IOException;
+
+    default String put(InputStream inputStream) throws IOException {
+        return put(inputStream::transferTo);
+    }
+
+    @FunctionalInterface
+    interface ContentWriter {
+
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+}
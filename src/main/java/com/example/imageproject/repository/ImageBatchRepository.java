@@ -0,0 +1,12 @@
+package com.example.imageproject.repository;
+
+import com.example.imageproject.domain.Image;
+
+import java.util.List;
+
+public interface ImageBatchRepository {
+
+    List<Image> saveInBatches(List<Image> images);
+
+    void clearPersistenceContext();
+}
@@ -0,0 +1,11 @@
+package com.example.imageproject.repository;
+
+import com.example.imageproject.domain.ImageContent;
+
+import java.util.List;
+import java.util.Map;
+
+public interface ImageContentBatchRepository {
+
+    Map<String, ImageContent> addReferences(Long customUserId, List<ImageContent> contents);
+}
@@ -0,0 +1,104 @@
+package com.example.imageproject.repository;
+
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.domain.ImageEncryption;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ImageContentBatchRepositoryImpl implements ImageContentBatchRepository {
+
+    private static final String ADD_REFERENCES = "INSERT INTO image_content (id, custom_user_id, sha256, blob_key, format_name, encryption, stored_size, plain_size, crc32, reference_count, updated_at) " +
+            "SELECT nextval('image_content_seq'), ?, r.sha256, r.blob_key, r.format_name, r.encryption, r.stored_size, r.plain_size, r.crc32, r.reference_count, now() " +
+            "FROM unnest(?::varchar[], ?::varchar[], ?::varchar[], ?::varchar[], ?::bigint[], ?::bigint[], ?::bigint[], ?::int[]) " +
+            "AS r(sha256, blob_key, format_name, encryption, stored_size, plain_size, crc32, reference_count) " +
+            "ON CONFLICT (custom_user_id, sha256) DO UPDATE SET reference_count = image_content.reference_count + EXCLUDED.reference_count, updated_at = now() " +
+            "RETURNING id, sha256, blob_key, format_name, encryption";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public ImageContentBatchRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // One statement for the whole batch. ON CONFLICT cannot update a row twice in one statement, so repeated
+    // sha256 values are merged into one row first; sorting them keeps the row lock order the same across imports.
+    // The returned rows carry the blob key and encryption of the stored content, which differ from the given ones
+    // when the content already existed.
+    @Override
+    @Transactional
+    public Map<String, ImageContent> addReferences(Long customUserId, List<ImageContent> contents) {
+        Map<String, ImageContent> rows = new TreeMap<>();
+        for (ImageContent content : contents) {
+            rows.merge(content.getSha256(), content, (first, repeated) -> {
+                first.setReferenceCount(first.getReferenceCount() + repeated.getReferenceCount());
+                return first;
+            });
+        }
+        Map<String, ImageContent> references = new HashMap<>();
+        if (rows.isEmpty()) {
+            return references;
+        }
+        jdbcTemplate.query(connection -> prepareAddReferences(connection, customUserId, List.copyOf(rows.values())), resultSet -> {
+            String encryption = resultSet.getString("encryption");
+            ImageContent reference = ImageContent.builder()
+                    .id(resultSet.getLong("id"))
+                    .customUserId(customUserId)
+                    .sha256(resultSet.getString("sha256"))
+                    .blobKey(resultSet.getString("blob_key"))
+                    .formatName(resultSet.getString("format_name"))
+                    .encryption(encryption == null ? null : ImageEncryption.valueOf(encryption))
+                    .build();
+            references.put(reference.getSha256(), reference);
+        });
+        return references;
+    }
+
+    private PreparedStatement prepareAddReferences(Connection connection, Long customUserId, List<ImageContent> rows) throws SQLException {
+        int size = rows.size();
+        String[] sha256 = new String[size];
+        String[] blobKey = new String[size];
+        String[] formatName = new String[size];
+        String[] encryption = new String[size];
+        Long[] storedSize = new Long[size];
+        Long[] plainSize = new Long[size];
+        Long[] crc32 = new Long[size];
+        Integer[] referenceCount = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            ImageContent row = rows.get(i);
+            sha256[i] = row.getSha256();
+            blobKey[i] = row.getBlobKey();
+            formatName[i] = row.getFormatName();
+            encryption[i] = row.getEncryption() == null ? null : row.getEncryption().name();
+            storedSize[i] = row.getStoredSize();
+            plainSize[i] = row.getPlainSize();
+            crc32[i] = row.getCrc32();
+            referenceCount[i] = row.getReferenceCount();
+        }
+        PreparedStatement statement = connection.prepareStatement(ADD_REFERENCES);
+        statement.setLong(1, customUserId);
+        statement.setArray(2, array(connection, "varchar", sha256));
+        statement.setArray(3, array(connection, "varchar", blobKey));
+        statement.setArray(4, array(connection, "varchar", formatName));
+        statement.setArray(5, array(connection, "varchar", encryption));
+        statement.setArray(6, array(connection, "bigint", storedSize));
+        statement.setArray(7, array(connection, "bigint", plainSize));
+        statement.setArray(8, array(connection, "bigint", crc32));
+        statement.setArray(9, array(connection, "integer", referenceCount));
+        return statement;
+    }
+
+    private static Array array(Connection connection, String type, Object[] values) throws SQLException {
+        return connection.createArrayOf(type, values);
+    }
+}
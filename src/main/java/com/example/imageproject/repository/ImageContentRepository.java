@@ -0,0 +1,51 @@
+package com.example.imageproject.repository;
+
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.domain.ImageEncryption;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+@Repository
+public interface ImageContentRepository extends JpaRepository<ImageContent, Long>, ImageContentBatchRepository {
+
+    Optional<ImageContent> findByCustomUserIdAndSha256(Long customUserId, String sha256);
+
+    @Modifying
+    @Query("update ImageContent c set c.referenceCount = c.referenceCount - 1, c.updatedAt = :updatedAt where c.id = :id and c.referenceCount > 0")
+    void releaseReference(@Param("id") Long id, @Param("updatedAt") LocalDateTime updatedAt);
+
+    @Modifying
+    @Query("update ImageContent c set c.referenceCount = 0, c.updatedAt = :updatedAt where c.customUserId = :customUserId")
+    void releaseAllByCustomUserId(@Param("customUserId") Long customUserId, @Param("updatedAt") LocalDateTime updatedAt);
+
+    @Query("select c from ImageContent c where c.referenceCount <= 0 and c.updatedAt < :updatedBefore and c.id > :id order by c.id")
+    List<ImageContent> findUnreferenced(@Param("id") Long id, @Param("updatedBefore") LocalDateTime updatedBefore, Pageable pageable);
+
+    @Modifying
+    @Query("delete from ImageContent c where c.id = :id and c.referenceCount <= 0")
+    int deleteUnreferenced(@Param("id") Long id);
+
+    @Query("select c from ImageContent c where (c.encryption is null or c.encryption <> :encryption) and c.id > :id order by c.id")
+    List<ImageContent> findNotEncryptedWith(@Param("encryption") ImageEncryption encryption, @Param("id") Long id, Pageable pageable);
+
+    List<ImageContent> findByCrc32IsNullAndIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    boolean existsByBlobKey(String blobKey);
+
+    @Modifying
+    @Query("update ImageContent c set c.longEdge = :longEdge where c.id = :id")
+    void updateLongEdge(@Param("id") Long id, @Param("longEdge") Integer longEdge);
+
+    @Query("select c.blobKey from ImageContent c where c.blobKey in :blobKeys")
+    Set<String> findExistingBlobKeys(@Param("blobKeys") Collection<String> blobKeys);
+}
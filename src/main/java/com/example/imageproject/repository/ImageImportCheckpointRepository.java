@@ -0,0 +1,22 @@
+package com.example.imageproject.repository;
+
+import com.example.imageproject.domain.ImageImportCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Set;
+
+@Repository
+public interface ImageImportCheckpointRepository extends JpaRepository<ImageImportCheckpoint, Long> {
+
+    @Query("select c.pathHash from ImageImportCheckpoint c where c.customUserId = :customUserId and c.pathHash in :pathHashes")
+    Set<String> findCompletedPathHashes(@Param("customUserId") Long customUserId, @Param("pathHashes") Collection<String> pathHashes);
+
+    @Modifying
+    @Query("delete from ImageImportCheckpoint c where c.customUserId = :customUserId")
+    void deleteByCustomUserId(@Param("customUserId") Long customUserId);
+}
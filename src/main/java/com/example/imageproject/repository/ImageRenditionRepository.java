@@ -0,0 +1,28 @@
+package com.example.imageproject.repository;
+
+import com.example.imageproject.domain.ImageRendition;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+@Repository
+public interface ImageRenditionRepository extends JpaRepository<ImageRendition, Long> {
+
+    Optional<ImageRendition> findFirstByContentIdAndLongEdgeGreaterThanEqualOrderByLongEdgeAsc(Long contentId, int longEdge);
+
+    List<ImageRendition> findByContentId(Long contentId);
+
+    @Modifying
+    @Query("delete from ImageRendition r where r.contentId = :contentId")
+    int deleteByContentId(@Param("contentId") Long contentId);
+
+    @Query("select r.blobKey from ImageRendition r where r.blobKey in :blobKeys")
+    Set<String> findExistingBlobKeys(@Param("blobKeys") Collection<String> blobKeys);
+}
@@ -1,9 +1,46 @@
 package com.example.imageproject.repository;
 
 import com.example.imageproject.domain.Image;
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.domain.ImageEncryption;
+import com.example.imageproject.dto.ImageArchiveEntry;
+import com.example.imageproject.dto.OwnedImage;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
 @Repository
-public interface ImageRepository extends JpaRepository<Image, Long> {
+public interface ImageRepository extends JpaRepository<Image, Long>, ImageBatchRepository {
+
+    @Query("select i.id from Image i where i.content is null and i.id > :id order by i.id")
+    List<Long> findLegacyImageIds(@Param("id") Long id, Pageable pageable);
+
+    @EntityGraph(attributePaths = "content")
+    List<Image> findByCustomUserCustomUserIdAndIdGreaterThanOrderByIdAsc(Long customUserId, Long id, Pageable pageable);
+
+    @Query("select new com.example.imageproject.dto.ImageArchiveEntry(i.id, i.createdAt, i.formatName, i.blobKey, i.encryption, c.plainSize, c.crc32) " +
+            "from Image i left join i.content c where i.customUser.customUserId = :customUserId and i.id > :id order by i.id")
+    List<ImageArchiveEntry> findArchiveEntries(@Param("customUserId") Long customUserId, @Param("id") Long id, Pageable pageable);
+
+    @Query("select new com.example.imageproject.dto.OwnedImage(i.id, i.customUser.customUserId, i.blobKey, i.encryption, c.id, c.sha256, c.plainSize, c.longEdge, i.formatName) " +
+            "from Image i left join i.content c where i.id = :id and i.customUser.username = :username")
+    Optional<OwnedImage> findOwnedImage(@Param("id") Long id, @Param("username") String username);
+
+    boolean existsByBlobKey(String blobKey);
+
+    @Modifying
+    @Query("update Image i set i.blobKey = :blobKey, i.encryption = :encryption where i.content = :content")
+    void updateBlob(@Param("content") ImageContent content, @Param("blobKey") String blobKey, @Param("encryption") ImageEncryption encryption);
+
+    @Query("select i.blobKey from Image i where i.blobKey in :blobKeys")
+    Set<String> findExistingBlobKeys(@Param("blobKeys") Collection<String> blobKeys);
 }
@@ -10,6 +10,8 @@ import com.example.imageproject.dto.CustomUserFormAdmin;
 import com.example.imageproject.dto.CustomUserInfo;
 import com.example.imageproject.exception.*;
 import com.example.imageproject.repository.CustomUserRepository;
+import com.example.imageproject.repository.ImageContentRepository;
+import com.example.imageproject.repository.ImageImportCheckpointRepository;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -43,15 +45,23 @@ public class CustomUserService implements UserDetailsService {
     private ConfirmationTokenService confirmationTokenService;
     private SendingEmailService sendingEmailService;
     private CustomUserEmailService customUserEmailService;
+    private ImageImportCheckpointRepository imageImportCheckpointRepository;
+    private ImageContentRepository imageContentRepository;
+    private DecryptedImageCache decryptedImageCache;
+    private ResizedImageCache resizedImageCache;
 
     @Autowired
-    public CustomUserService(CustomUserRepository customUserRepository, ModelMapper modelMapper, PasswordEncoder passwordEncoder, ConfirmationTokenService confirmationTokenService, SendingEmailService sendingEmailService, CustomUserEmailService customUserEmailService) {
+    public CustomUserService(CustomUserRepository customUserRepository, ModelMapper modelMapper, PasswordEncoder passwordEncoder, ConfirmationTokenService confirmationTokenService, SendingEmailService sendingEmailService, CustomUserEmailService customUserEmailService, ImageImportCheckpointRepository imageImportCheckpointRepository, ImageContentRepository imageContentRepository, DecryptedImageCache decryptedImageCache, ResizedImageCache resizedImageCache) {
         this.customUserRepository = customUserRepository;
         this.modelMapper = modelMapper;
         this.passwordEncoder = passwordEncoder;
         this.confirmationTokenService = confirmationTokenService;
         this.sendingEmailService = sendingEmailService;
         this.customUserEmailService = customUserEmailService;
+        this.imageImportCheckpointRepository = imageImportCheckpointRepository;
+        this.imageContentRepository = imageContentRepository;
+        this.decryptedImageCache = decryptedImageCache;
+        this.resizedImageCache = resizedImageCache;
     }
 
     public CustomUserInfo register(CustomUserForm customUserForm) {
@@ -343,6 +353,10 @@ public class CustomUserService implements UserDetailsService {
 
     public String deleteUser(String customUsername) {
         CustomUser customUser = findCustomUserByUsername(customUsername);
+        imageImportCheckpointRepository.deleteByCustomUserId(customUser.getCustomUserId());
+        imageContentRepository.releaseAllByCustomUserId(customUser.getCustomUserId(), LocalDateTime.now());
+        decryptedImageCache.invalidateUser(customUser.getCustomUserId());
+        resizedImageCache.invalidateUser(customUser.getCustomUserId());
         customUserRepository.delete(customUser);
         return "A felhasználó törölve van!";
     }
@@ -364,6 +378,8 @@ public class CustomUserService implements UserDetailsService {
         customUser.setConfirmationToken(null);
         customUser.setDeleteDate(LocalDateTime.now());
         customUser.setDeleted(true);
+        decryptedImageCache.invalidateUser(customUser.getCustomUserId());
+        resizedImageCache.invalidateUser(customUser.getCustomUserId());
         customUser.setCustomUserEmail(null);
         return "Törölte a profilját!";
     }
@@ -0,0 +1,234 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.dto.ImageCacheStats;
+import com.example.imageproject.repository.BlobStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+@Service
+public class DecryptedImageCache {
+
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final boolean offHeap;
+    private final LinkedHashMap<CacheKey, CachedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long totalBytes;
+    private long invalidations;
+
+    @Autowired
+    public DecryptedImageCache(@Value("${image.cache.max-bytes:268435456}") long maxBytes,
+                               @Value("${image.cache.max-entry-bytes:16777216}") long maxEntryBytes,
+                               @Value("${image.cache.off-heap:false}") boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(Math.min(maxEntryBytes, maxBytes), Integer.MAX_VALUE);
+        this.offHeap = offHeap;
+    }
+
+
+    public CachedImage get(Long customUserId, Long imageId, int variant) {
+        CachedImage cachedImage;
+        synchronized (this) {
+            cachedImage = entries.get(new CacheKey(imageId, variant));
+        }
+        if (cachedImage == null || !cachedImage.customUserId.equals(customUserId)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cachedImage;
+    }
+
+    public void writeThrough(Long customUserId, Long imageId, int variant, long size, OutputStream outputStream,
+                             BlobStore.ContentWriter source) throws IOException {
+        if (maxBytes <= 0 || size > maxEntryBytes) {
+            source.writeTo(outputStream);
+            return;
+        }
+        long invalidationsBefore = invalidations();
+        // filled while streaming, so off-heap entries never pass through a heap array
+        ByteBuffer data = offHeap ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+        boolean[] overflow = new boolean[1];
+        source.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                outputStream.write(bytes, offset, length);
+                if (length <= data.remaining()) {
+                    data.put(bytes, offset, length);
+                } else {
+                    overflow[0] = true;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                outputStream.flush();
+            }
+        });
+        if (!overflow[0] && !data.hasRemaining()) {
+            put(new CacheKey(imageId, variant), new CachedImage(customUserId, data.flip()), invalidationsBefore);
+        }
+    }
+
+    public void invalidate(Long imageId) {
+        afterCommit(() -> removeImage(imageId));
+    }
+
+    public void invalidateUser(Long customUserId) {
+        afterCommit(() -> removeUser(customUserId));
+    }
+
+    private static void afterCommit(Runnable invalidation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidation.run();
+            return;
+        }
+        // until the commit a download can still read the image and put it back into the cache
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidation.run();
+            }
+        });
+    }
+
+    private synchronized void removeImage(Long imageId) {
+        invalidations++;
+        Iterator<Map.Entry<CacheKey, CachedImage>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<CacheKey, CachedImage> entry = iterator.next();
+            if (entry.getKey().imageId.equals(imageId)) {
+                iterator.remove();
+                remove(entry.getValue());
+            }
+        }
+    }
+
+    private synchronized void removeUser(Long customUserId) {
+        invalidations++;
+        Iterator<CachedImage> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            CachedImage cachedImage = iterator.next();
+            if (cachedImage.customUserId.equals(customUserId)) {
+                iterator.remove();
+                remove(cachedImage);
+            }
+        }
+    }
+
+    public synchronized ImageCacheStats getStats() {
+        return ImageCacheStats.builder()
+                .hits(hits.sum())
+                .misses(misses.sum())
+                .evictions(evictions.sum())
+                .entries(entries.size())
+                .bytes(totalBytes)
+                .maxBytes(maxBytes)
+                .offHeap(offHeap)
+                .build();
+    }
+
+    private synchronized long invalidations() {
+        return invalidations;
+    }
+
+    // a read that overlapped an invalidation may have streamed content that was deleted meanwhile
+    private synchronized void put(CacheKey key, CachedImage cachedImage, long invalidationsBefore) {
+        if (invalidations != invalidationsBefore) {
+            return;
+        }
+        remove(entries.put(key, cachedImage));
+        totalBytes += cachedImage.size();
+        Iterator<Map.Entry<CacheKey, CachedImage>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            CachedImage eldest = iterator.next().getValue();
+            iterator.remove();
+            remove(eldest);
+            evictions.increment();
+        }
+    }
+
+    private void remove(CachedImage cachedImage) {
+        if (cachedImage != null) {
+            totalBytes -= cachedImage.size();
+        }
+    }
+
+
+    private static class CacheKey {
+        private final Long imageId;
+        private final int variant;
+
+        private CacheKey(Long imageId, int variant) {
+            this.imageId = imageId;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return imageId.equals(other.imageId) && variant == other.variant;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(imageId, variant);
+        }
+    }
+
+    public static class CachedImage {
+        private final Long customUserId;
+        private final ByteBuffer data;
+
+        private CachedImage(Long customUserId, ByteBuffer data) {
+            this.customUserId = customUserId;
+            this.data = data;
+        }
+
+        public long size() {
+            return data.capacity();
+        }
+
+        public void writeTo(long offset, long length, OutputStream outputStream) throws IOException {
+            ByteBuffer range = data.duplicate();
+            range.position(Math.toIntExact(offset)).limit(Math.toIntExact(offset + length));
+            if (range.hasArray()) {
+                outputStream.write(range.array(), range.arrayOffset() + range.position(), range.remaining());
+                return;
+            }
+            byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, range.remaining())];
+            while (range.hasRemaining()) {
+                int chunk = Math.min(buffer.length, range.remaining());
+                range.get(buffer, 0, chunk);
+                outputStream.write(buffer, 0, chunk);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.domain.ImageRendition;
+import com.example.imageproject.dto.StoredContent;
+import com.example.imageproject.repository.BlobStore;
+import com.example.imageproject.repository.ImageContentRepository;
+import com.example.imageproject.repository.ImageRenditionRepository;
+import com.example.imageproject.repository.ImageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+@Service
+@Slf4j
+public class ImageContentService {
+
+    private static final int SWEEP_PAGE_SIZE = 100;
+
+    private final ImageContentRepository imageContentRepository;
+    private final ImageRepository imageRepository;
+    private final ImageRenditionRepository imageRenditionRepository;
+    private final BlobStore blobStore;
+    private final ResizedImageCache resizedImageCache;
+    private final TransactionTemplate transactionTemplate;
+    private final long graceMinutes;
+
+    @Autowired
+    public ImageContentService(ImageContentRepository imageContentRepository, ImageRepository imageRepository,
+                               ImageRenditionRepository imageRenditionRepository, BlobStore blobStore, ResizedImageCache resizedImageCache,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${image.storage.unreferenced-grace-minutes:60}") long graceMinutes) {
+        this.imageContentRepository = imageContentRepository;
+        this.imageRepository = imageRepository;
+        this.imageRenditionRepository = imageRenditionRepository;
+        this.blobStore = blobStore;
+        this.resizedImageCache = resizedImageCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.graceMinutes = graceMinutes;
+    }
+
+
+    public ImageContent newReference(StoredContent storedContent, String formatName) {
+        try {
+            return ImageContent.builder()
+                    .sha256(storedContent.getSha256())
+                    .blobKey(storedContent.getBlobKey())
+                    .formatName(formatName)
+                    .encryption(ImageStorageService.ENCRYPTION)
+                    .storedSize(blobStore.size(storedContent.getBlobKey()))
+                    .plainSize(storedContent.getPlainSize())
+                    .crc32(storedContent.getCrc32())
+                    .referenceCount(1)
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Only for sources that can be read twice: hashing first finds a duplicate before anything is encrypted and written.
+    // Returns a reference to the existing content, or null when the content still has to be stored.
+    public ImageContent findDuplicate(Long customUserId, InputStreamSource source) throws IOException {
+        MessageDigest digest = ImageStorageService.newSha256();
+        try (DigestInputStream digestInputStream = new DigestInputStream(source.getInputStream(), digest)) {
+            digestInputStream.transferTo(OutputStream.nullOutputStream());
+        }
+        return imageContentRepository.findByCustomUserIdAndSha256(customUserId, HexFormat.of().formatHex(digest.digest()))
+                .filter(content -> content.getReferenceCount() > 0)
+                .map(ImageContentService::reuseReference)
+                .orElse(null);
+    }
+
+    private static ImageContent reuseReference(ImageContent content) {
+        return ImageContent.builder()
+                .sha256(content.getSha256())
+                .blobKey(content.getBlobKey())
+                .formatName(content.getFormatName())
+                .encryption(content.getEncryption())
+                .storedSize(content.getStoredSize())
+                .plainSize(content.getPlainSize())
+                .crc32(content.getCrc32())
+                .referenceCount(1)
+                .build();
+    }
+
+    @Transactional
+    public ImageContent addReference(Long customUserId, StoredContent storedContent, String formatName) {
+        return addReference(customUserId, newReference(storedContent, formatName));
+    }
+
+    @Transactional
+    public ImageContent addReference(Long customUserId, ImageContent reference) {
+        return addReferences(customUserId, List.of(reference)).get(reference.getSha256());
+    }
+
+    // Keyed by sha256; the values are detached rows holding the id, blob key, format and encryption of the content.
+    @Transactional
+    public Map<String, ImageContent> addReferences(Long customUserId, List<ImageContent> contents) {
+        return imageContentRepository.addReferences(customUserId, contents);
+    }
+
+    // Proxy for the foreign key of a new image, nothing is loaded unless it is read.
+    public ImageContent getReference(Long id) {
+        return imageContentRepository.getById(id);
+    }
+
+    // The stored blob lost to content that already existed for the same sha256, nothing references it.
+    public void discardDuplicate(StoredContent storedContent, ImageContent content) {
+        if (storedContent.getBlobKey().equals(content.getBlobKey())) {
+            return;
+        }
+        try {
+            blobStore.delete(storedContent.getBlobKey());
+        } catch (IOException e) {
+            log.warn("Deleting duplicate blob " + storedContent.getBlobKey() + " failed, the orphan scan removes it: ", e);
+        }
+    }
+
+    @Transactional
+    public void releaseReference(ImageContent content) {
+        imageContentRepository.releaseReference(content.getId(), LocalDateTime.now());
+        resizedImageCache.invalidateContent(content.getId());
+    }
+
+
+    @Scheduled(initialDelay = 60000, fixedDelayString = "${image.storage.sweep-delay-ms:600000}")
+    public void removeUnreferencedContent() {
+        LocalDateTime limit = LocalDateTime.now().minusMinutes(graceMinutes);
+        long lastId = 0;
+        List<ImageContent> contents;
+        while (!(contents = imageContentRepository.findUnreferenced(lastId, limit, PageRequest.of(0, SWEEP_PAGE_SIZE))).isEmpty()) {
+            for (ImageContent content : contents) {
+                removeContent(content);
+            }
+            lastId = contents.get(contents.size() - 1).getId();
+        }
+    }
+
+    private void removeContent(ImageContent content) {
+        try {
+            List<String> unusedBlobKeys = transactionTemplate.execute(status -> {
+                List<String> blobKeys = new ArrayList<>();
+                if (imageContentRepository.deleteUnreferenced(content.getId()) != 1) {
+                    return blobKeys;
+                }
+                if (!imageContentRepository.existsByBlobKey(content.getBlobKey()) && !imageRepository.existsByBlobKey(content.getBlobKey())) {
+                    blobKeys.add(content.getBlobKey());
+                }
+                for (ImageRendition rendition : imageRenditionRepository.findByContentId(content.getId())) {
+                    blobKeys.add(rendition.getBlobKey());
+                }
+                imageRenditionRepository.deleteByContentId(content.getId());
+                return blobKeys;
+            });
+            for (String blobKey : unusedBlobKeys) {
+                blobStore.delete(blobKey);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Removing unreferenced image content " + content.getId() + " failed: ", e);
+        }
+    }
+
+    @Scheduled(initialDelay = 120000, fixedDelayString = "${image.storage.orphan-scan-delay-ms:86400000}")
+    public void removeOrphanBlobs() {
+        int removed = 0;
+        try (Stream<String> keys = blobStore.keys(Instant.now().minus(graceMinutes, ChronoUnit.MINUTES))) {
+            Iterator<String> iterator = keys.iterator();
+            List<String> chunk = new ArrayList<>();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == SWEEP_PAGE_SIZE || !iterator.hasNext()) {
+                    removed += removeOrphans(chunk);
+                    chunk.clear();
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Scanning the blob store for orphan blobs failed: ", e);
+        }
+        if (removed > 0) {
+            log.info("Removed " + removed + " orphan blobs from the blob store.");
+        }
+    }
+
+    private int removeOrphans(List<String> keys) throws IOException {
+        Set<String> referenced = new HashSet<>(imageContentRepository.findExistingBlobKeys(keys));
+        referenced.addAll(imageRepository.findExistingBlobKeys(keys));
+        referenced.addAll(imageRenditionRepository.findExistingBlobKeys(keys));
+        int removed = 0;
+        for (String key : keys) {
+            if (!referenced.contains(key)) {
+                blobStore.delete(key);
+                removed++;
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.exception.ConversionQueueFullException;
+import com.example.imageproject.exception.ConversionTimeoutException;
+import com.example.imageproject.repository.BlobStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+@Slf4j
+public class ImageConversionExecutor {
+
+    private final ResizeEngine resizeEngine;
+    private final ThreadPoolExecutor executor;
+    // one permit per worker and queue slot; the semaphore is the bound, the executor's own queue never fills up
+    private final Semaphore slots;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final long timeoutSeconds;
+    private final long retryAfterSeconds;
+
+    @Autowired
+    public ImageConversionExecutor(ResizeEngine resizeEngine,
+                                   @Value("${image.conversion.concurrency:4}") int concurrency,
+                                   @Value("${image.conversion.queue-capacity:16}") int queueCapacity,
+                                   @Value("${image.conversion.timeout-seconds:60}") long timeoutSeconds,
+                                   @Value("${image.conversion.retry-after-seconds:10}") long retryAfterSeconds) {
+        this.resizeEngine = resizeEngine;
+        this.timeoutSeconds = timeoutSeconds;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.slots = new Semaphore(concurrency + queueCapacity);
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), namedThreadFactory("image-conversion-"),
+                new ThreadPoolExecutor.AbortPolicy()) {
+            @Override
+            protected void afterExecute(Runnable job, Throwable e) {
+                slots.release();
+            }
+        };
+        this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("image-conversion-timeout-"));
+    }
+
+    // The source is only opened on the worker, so reading and decrypting it is part of the job and of its timeout.
+    public CompletableFuture<byte[]> submit(InputStreamSource source, int maxWidth, int maxHeight, String formatName) {
+        return submit(source, outputStream -> resizeEngine.resize(source, outputStream, maxWidth, maxHeight, formatName));
+    }
+
+    public CompletableFuture<byte[]> submitFill(InputStreamSource source, int width, int height, String formatName) {
+        return submit(source, outputStream -> resizeEngine.fill(source, outputStream, width, height, formatName));
+    }
+
+    // Imports share the workers with uploads, but wait for room in the queue instead of being rejected
+    // and write the result straight to the target.
+    public void resize(InputStreamSource source, OutputStream target, int maxWidth, int maxHeight, String formatName) throws IOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the image conversion queue.");
+        }
+        CompletableFuture<Void> result = schedule(() -> {
+            resizeEngine.resize(source, target, maxWidth, maxHeight, formatName);
+            return null;
+        });
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resizing " + source);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Resizing " + source + " failed.", e.getCause());
+        }
+    }
+
+    private CompletableFuture<byte[]> submit(InputStreamSource source, BlobStore.ContentWriter conversion) {
+        if (!slots.tryAcquire()) {
+            log.warn("Image conversion queue is full, rejecting: " + source);
+            return CompletableFuture.failedFuture(new ConversionQueueFullException(retryAfterSeconds));
+        }
+        return schedule(() -> {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            conversion.writeTo(outputStream);
+            return outputStream.toByteArray();
+        });
+    }
+
+    // The caller holds a permit. A job cancelled while queued is still run (as a no-op), so its permit comes back too.
+    private <T> CompletableFuture<T> schedule(Callable<T> conversion) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        FutureTask<?>[] job = new FutureTask<?>[1];
+        job[0] = new FutureTask<>(() -> runJob(result, conversion, job[0]), null);
+        try {
+            executor.execute(job[0]);
+        } catch (RejectedExecutionException e) {
+            // only after shutdown
+            slots.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                job[0].cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private <T> void runJob(CompletableFuture<T> result, Callable<T> conversion, Future<?> job) {
+        if (result.isDone()) {
+            return;
+        }
+        // the timeout starts with the conversion, time spent waiting in the queue does not count
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+            if (result.completeExceptionally(new ConversionTimeoutException(timeoutSeconds))) {
+                job.cancel(true);
+            }
+        }, timeoutSeconds, TimeUnit.SECONDS);
+        try {
+            result.complete(conversion.call());
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        } finally {
+            timeout.cancel(false);
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        timeoutScheduler.shutdownNow();
+    }
+}
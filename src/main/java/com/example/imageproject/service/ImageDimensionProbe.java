@@ -0,0 +1,45 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.dto.ImageDimensions;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+
+@Service
+public class ImageDimensionProbe {
+
+    public ImageDimensions probe(InputStream inputStream) throws IOException {
+        try (ImageInputStream imageInputStream = new MemoryCacheImageInputStream(inputStream)) {
+            return probe(imageInputStream);
+        }
+    }
+
+    public ImageDimensions probe(Path path) throws IOException {
+        try (ImageInputStream imageInputStream = new FileImageInputStream(path.toFile())) {
+            return probe(imageInputStream);
+        }
+    }
+
+    private ImageDimensions probe(ImageInputStream imageInputStream) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+        if (!readers.hasNext()) {
+            throw new IOException("No image reader found for the given content.");
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(imageInputStream, true, true);
+            return new ImageDimensions(reader.getWidth(0), reader.getHeight(0), reader.getFormatName().toLowerCase(Locale.ROOT));
+        } finally {
+            reader.dispose();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.domain.Image;
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.dto.ImageArchiveEntry;
+import com.example.imageproject.repository.ImageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+@Service
+@Slf4j
+public class ImageExportService {
+
+    private static final Set<String> COMPRESSED_FORMATS = Set.of("jpeg", "jpg", "png", "gif", "webp");
+
+    private final ImageRepository imageRepository;
+    private final ImageStorageService imageStorageService;
+    private final int pageSize;
+    private final ExportCompression compression;
+    private final int deflateLevel;
+    private final int window;
+    private final long bufferMaxBytes;
+    private final ExecutorService deflateExecutor;
+
+    @Autowired
+    public ImageExportService(ImageRepository imageRepository, ImageStorageService imageStorageService,
+                              @Value("${image.export.page-size:100}") int pageSize,
+                              @Value("${image.export.compression:auto}") String compression,
+                              @Value("${image.export.parallel-deflate:true}") boolean parallelDeflate,
+                              @Value("${image.export.deflate-threads:0}") int deflateThreads,
+                              @Value("${image.export.deflate-level:6}") int deflateLevel,
+                              @Value("${image.export.buffer-max-bytes:67108864}") long bufferMaxBytes) {
+        this.imageRepository = imageRepository;
+        this.imageStorageService = imageStorageService;
+        this.pageSize = pageSize;
+        this.compression = ExportCompression.valueOf(compression.toUpperCase(Locale.ROOT));
+        this.deflateLevel = deflateLevel;
+        int threads = deflateThreads > 0 ? deflateThreads : Runtime.getRuntime().availableProcessors();
+        this.window = parallelDeflate ? threads * 2 : 1;
+        this.bufferMaxBytes = bufferMaxBytes;
+        this.deflateExecutor = parallelDeflate ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+
+    public void writeArchive(Long customUserId, OutputStream outputStream) throws IOException {
+        ZipArchiveWriter zipArchiveWriter = new ZipArchiveWriter(outputStream);
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+        long pendingBytes = 0;
+        try {
+            long lastId = 0;
+            List<Image> images;
+            while (!(images = imageRepository.findByCustomUserCustomUserIdAndIdGreaterThanOrderByIdAsc(customUserId, lastId,
+                    PageRequest.of(0, pageSize))).isEmpty()) {
+                for (Image image : images) {
+                    PendingEntry entry = prepare(image);
+                    pending.add(entry);
+                    pendingBytes += entry.bufferedBytes;
+                    // Buffered entries are held decrypted in memory, so the window is bounded by their bytes as well as their count.
+                    while (pending.size() > window || (pendingBytes > bufferMaxBytes && !pending.isEmpty())) {
+                        PendingEntry written = pending.poll();
+                        write(zipArchiveWriter, written);
+                        pendingBytes -= written.bufferedBytes;
+                    }
+                }
+                lastId = images.get(images.size() - 1).getId();
+                imageRepository.clearPersistenceContext();
+            }
+            while (!pending.isEmpty()) {
+                write(zipArchiveWriter, pending.poll());
+            }
+            zipArchiveWriter.finish();
+        } finally {
+            pending.forEach(PendingEntry::cancel);
+        }
+    }
+
+    ArchiveLayout layout(Long customUserId) {
+        List<ImageArchiveEntry> entries = new ArrayList<>();
+        ZipArchiveWriter measuringWriter = new ZipArchiveWriter(OutputStream.nullOutputStream(), 0, 0);
+        MessageDigest digest = newSha256();
+        try {
+            long lastId = 0;
+            List<ImageArchiveEntry> page;
+            while (!(page = imageRepository.findArchiveEntries(customUserId, lastId, PageRequest.of(0, pageSize))).isEmpty()) {
+                for (ImageArchiveEntry entry : page) {
+                    if (entry.getBlobKey() == null || !isStreamed(entry.getFormatName(), entry.getPlainSize(), entry.getCrc32())) {
+                        return null;
+                    }
+                    measuringWriter.writeStoredEntry(entryName(entry.getId()), entry.getCreatedAt(), entry.getPlainSize(), entry.getCrc32(),
+                            (offset, length, outputStream) -> {
+                            });
+                    digest.update((entry.getId() + ":" + entry.getPlainSize() + ":" + entry.getCrc32() + ":" + entry.getCreatedAt() + "\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                    entries.add(entry);
+                }
+                lastId = page.get(page.size() - 1).getId();
+            }
+            measuringWriter.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ArchiveLayout(entries, measuringWriter.length(), "\"zip-" + HexFormat.of().formatHex(digest.digest()) + "\"");
+    }
+
+    void writeArchive(ArchiveLayout layout, long offset, long length, OutputStream outputStream) throws IOException {
+        ZipArchiveWriter zipArchiveWriter = new ZipArchiveWriter(outputStream, offset, length);
+        for (ImageArchiveEntry entry : layout.entries) {
+            Image snapshot = Image.builder()
+                    .id(entry.getId())
+                    .blobKey(entry.getBlobKey())
+                    .encryption(entry.getEncryption())
+                    .build();
+            zipArchiveWriter.writeStoredEntry(entryName(entry.getId()), entry.getCreatedAt(), entry.getPlainSize(), entry.getCrc32(),
+                    (entryOffset, entryLength, entryOutputStream) ->
+                            imageStorageService.writeDecrypted(snapshot, entryOffset, entryLength, entryOutputStream));
+        }
+        zipArchiveWriter.finish();
+    }
+
+    private PendingEntry prepare(Image image) {
+        ImageContent content = image.getContent();
+        Image snapshot = ImageStorageService.detachedCopy(image);
+        PendingEntry entry = new PendingEntry(entryName(image.getId()), image.getCreatedAt(), snapshot);
+        boolean compressed = isCompressedFormat(image.getFormatName());
+        if (content != null && isStreamed(image.getFormatName(), content.getPlainSize(), content.getCrc32())) {
+            entry.streamed = true;
+            entry.size = content.getPlainSize();
+            entry.crc32 = content.getCrc32();
+            return entry;
+        }
+        entry.deflate = compression == ExportCompression.DEFLATE || (compression == ExportCompression.AUTO && !compressed);
+        entry.bufferedBytes = estimatedPlainSize(image);
+        if (deflateExecutor != null) {
+            entry.buffered = deflateExecutor.submit(() -> buffer(snapshot, entry.deflate));
+        }
+        return entry;
+    }
+
+    // An entry of unknown size takes the whole budget, so it is buffered alone.
+    private long estimatedPlainSize(Image image) {
+        ImageContent content = image.getContent();
+        if (content != null) {
+            return content.getPlainSize() != null && content.getPlainSize() >= 0 ? content.getPlainSize() : content.getStoredSize();
+        }
+        return image.getData() != null ? image.getData().length : bufferMaxBytes;
+    }
+
+    private void write(ZipArchiveWriter zipArchiveWriter, PendingEntry entry) throws IOException {
+        if (entry.streamed) {
+            zipArchiveWriter.writeEntry(entry.name, entry.createdAt, ZipArchiveWriter.STORED, entry.size, entry.size, entry.crc32,
+                    outputStream -> imageStorageService.writeDecrypted(entry.image, outputStream));
+            return;
+        }
+        BufferedEntry buffered = entry.buffered == null ? buffer(entry.image, entry.deflate) : await(entry.buffered);
+        zipArchiveWriter.writeEntry(entry.name, entry.createdAt, buffered.method, buffered.size, buffered.data.length, buffered.crc32,
+                outputStream -> outputStream.write(buffered.data));
+    }
+
+    private BufferedEntry buffer(Image image, boolean deflate) throws IOException {
+        byte[] plainData = imageStorageService.readDecrypted(image);
+        CRC32 crc32 = new CRC32();
+        crc32.update(plainData);
+        if (deflate) {
+            Deflater deflater = new Deflater(deflateLevel, true);
+            try {
+                ByteArrayOutputStream deflated = new ByteArrayOutputStream(plainData.length / 2 + 64);
+                try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(deflated, deflater, 65536)) {
+                    deflaterOutputStream.write(plainData);
+                }
+                if (deflated.size() < plainData.length) {
+                    return new BufferedEntry(ZipArchiveWriter.DEFLATED, plainData.length, crc32.getValue(), deflated.toByteArray());
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return new BufferedEntry(ZipArchiveWriter.STORED, plainData.length, crc32.getValue(), plainData);
+    }
+
+    private static BufferedEntry await(Future<BufferedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing an archive entry.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Compressing an archive entry failed.", e.getCause());
+        }
+    }
+
+    private boolean isStreamed(String formatName, Long plainSize, Long crc32) {
+        return compression != ExportCompression.DEFLATE
+                && (compression == ExportCompression.STORED || isCompressedFormat(formatName))
+                && plainSize != null && plainSize >= 0
+                && crc32 != null && crc32 >= 0;
+    }
+
+    private static String entryName(Long imageId) {
+        return imageId + ".jpg";
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isCompressedFormat(String formatName) {
+        return formatName != null && COMPRESSED_FORMATS.contains(formatName.toLowerCase(Locale.ROOT));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (deflateExecutor != null) {
+            deflateExecutor.shutdownNow();
+        }
+    }
+
+
+    private enum ExportCompression {
+        AUTO, STORED, DEFLATE
+    }
+
+    static class ArchiveLayout {
+        private final List<ImageArchiveEntry> entries;
+        private final long length;
+        private final String eTag;
+
+        private ArchiveLayout(List<ImageArchiveEntry> entries, long length, String eTag) {
+            this.entries = entries;
+            this.length = length;
+            this.eTag = eTag;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        String getETag() {
+            return eTag;
+        }
+    }
+
+    private static class PendingEntry {
+        private final String name;
+        private final LocalDateTime createdAt;
+        private final Image image;
+        private boolean streamed;
+        private long size;
+        private long crc32;
+        private boolean deflate;
+        private long bufferedBytes;
+        private Future<BufferedEntry> buffered;
+
+        private PendingEntry(String name, LocalDateTime createdAt, Image image) {
+            this.name = name;
+            this.createdAt = createdAt;
+            this.image = image;
+        }
+
+        private void cancel() {
+            if (buffered != null) {
+                buffered.cancel(true);
+            }
+        }
+    }
+
+    private static class BufferedEntry {
+        private final int method;
+        private final long size;
+        private final long crc32;
+        private final byte[] data;
+
+        private BufferedEntry(int method, long size, long crc32, byte[] data) {
+            this.method = method;
+            this.size = size;
+            this.crc32 = crc32;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.dto.ImageImportFileResult;
+import com.example.imageproject.dto.ImageImportJobInfo;
+import com.example.imageproject.dto.ImageImportJobStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Slf4j
+public class ImageImportJob {
+
+    private static final ObjectWriter REPORT_LINE_WRITER = new ObjectMapper().writerFor(ImageImportFileResult.class);
+
+    private final String jobId;
+    private final String username;
+    private final String directoryPath;
+    private final String include;
+    private final boolean recursive;
+    private final LocalDateTime submittedAt = LocalDateTime.now();
+    private final Path reportFile;
+    private final int maxIssues;
+    // only skipped and failed files are kept in memory, and only up to maxIssues; every result goes to reportFile
+    private final List<ImageImportFileResult> issues = new ArrayList<>();
+
+    private ImageImportJobStatus status = ImageImportJobStatus.QUEUED;
+    private Integer total;
+    private int succeeded;
+    private int skipped;
+    private int failed;
+    private int alreadyImported;
+    private int omittedIssues;
+    private BufferedWriter reportWriter;
+    private boolean reportStarted;
+    // responses streaming reportFile right now; the retention sweep leaves the file alone while there are any
+    private int reportReaders;
+    private long bytesProcessed;
+    private long startedNanos;
+    private long finishedNanos;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private String error;
+    private volatile boolean cancelRequested;
+
+    public ImageImportJob(String jobId, String username, String directoryPath, String include, boolean recursive,
+                          Path reportFile, int maxIssues) {
+        this.jobId = jobId;
+        this.username = username;
+        this.directoryPath = directoryPath;
+        this.include = include;
+        this.recursive = recursive;
+        this.reportFile = reportFile;
+        this.maxIssues = maxIssues;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getDirectoryPath() {
+        return directoryPath;
+    }
+
+    public String getInclude() {
+        return include;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public synchronized boolean start() {
+        if (status != ImageImportJobStatus.QUEUED) {
+            return false;
+        }
+        status = ImageImportJobStatus.RUNNING;
+        startedAt = LocalDateTime.now();
+        startedNanos = System.nanoTime();
+        return true;
+    }
+
+    public synchronized void setTotal(Integer total) {
+        this.total = total;
+    }
+
+    public synchronized void add(ImageImportFileResult result, long bytes) {
+        switch (result.getStatus()) {
+            case UPLOADED:
+            case RESIZED:
+                succeeded++;
+                break;
+            case SKIPPED:
+                skipped++;
+                addIssue(result);
+                break;
+            default:
+                failed++;
+                addIssue(result);
+        }
+        appendToReport(result);
+        bytesProcessed += bytes;
+    }
+
+    public synchronized void addAlreadyImported(long bytes) {
+        alreadyImported++;
+        bytesProcessed += bytes;
+    }
+
+    private void addIssue(ImageImportFileResult result) {
+        if (issues.size() < maxIssues) {
+            issues.add(result);
+        } else {
+            omittedIssues++;
+        }
+    }
+
+    private void appendToReport(ImageImportFileResult result) {
+        if (reportFile == null || isFinished()) {
+            return;
+        }
+        try {
+            if (!reportStarted) {
+                reportStarted = true;
+                reportWriter = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8);
+            }
+            if (reportWriter == null) {
+                return;
+            }
+            reportWriter.write(REPORT_LINE_WRITER.writeValueAsString(result));
+            reportWriter.newLine();
+        } catch (IOException e) {
+            log.warn("Writing the report of import job " + jobId + " failed: ", e);
+            closeReport();
+        }
+    }
+
+    // One JSON object per line; while the job runs this is the report so far.
+    public void writeReport(OutputStream outputStream) throws IOException {
+        long length;
+        synchronized (this) {
+            if (!reportStarted) {
+                return;
+            }
+            if (reportWriter != null) {
+                reportWriter.flush();
+            }
+            length = Files.size(reportFile);
+            reportReaders++;
+        }
+        try (InputStream inputStream = Files.newInputStream(reportFile)) {
+            byte[] buffer = new byte[8192];
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            synchronized (this) {
+                reportReaders--;
+            }
+        }
+    }
+
+    // false while a response is still streaming the report, the next sweep tries again
+    public synchronized boolean deleteReportIfUnread() {
+        if (reportReaders > 0) {
+            return false;
+        }
+        deleteReport();
+        return true;
+    }
+
+    public synchronized void deleteReport() {
+        closeReport();
+        reportStarted = false;
+        if (reportFile != null) {
+            try {
+                Files.deleteIfExists(reportFile);
+            } catch (IOException e) {
+                log.warn("Deleting the report of import job " + jobId + " failed: ", e);
+            }
+        }
+    }
+
+    private void closeReport() {
+        if (reportWriter == null) {
+            return;
+        }
+        try {
+            reportWriter.close();
+        } catch (IOException e) {
+            log.warn("Closing the report of import job " + jobId + " failed: ", e);
+        }
+        reportWriter = null;
+    }
+
+    public synchronized void cancel() {
+        cancelRequested = true;
+        if (status == ImageImportJobStatus.QUEUED) {
+            finish(ImageImportJobStatus.CANCELLED, null);
+        }
+    }
+
+    public synchronized void finish(ImageImportJobStatus finalStatus, String error) {
+        if (isFinished()) {
+            return;
+        }
+        this.status = finalStatus;
+        this.error = error;
+        this.finishedAt = LocalDateTime.now();
+        this.finishedNanos = System.nanoTime();
+        closeReport();
+    }
+
+    public synchronized boolean isFinished() {
+        return status == ImageImportJobStatus.COMPLETED
+                || status == ImageImportJobStatus.FAILED
+                || status == ImageImportJobStatus.CANCELLED;
+    }
+
+    public synchronized LocalDateTime getFinishedAt() {
+        return finishedAt;
+    }
+
+    public synchronized ImageImportJobInfo toInfo() {
+        int processed = succeeded + skipped + failed + alreadyImported;
+        long bytesPerSecond = 0;
+        Long etaSeconds = null;
+        if (startedAt != null) {
+            double elapsedSeconds = Math.max(1, (finishedAt == null ? System.nanoTime() : finishedNanos) - startedNanos) / 1e9;
+            bytesPerSecond = (long) (bytesProcessed / elapsedSeconds);
+            if (!isFinished() && total != null && processed > 0) {
+                etaSeconds = (long) ((total - processed) * elapsedSeconds / processed);
+            }
+        }
+        return ImageImportJobInfo.builder()
+                .jobId(jobId)
+                .username(username)
+                .directoryPath(directoryPath)
+                .include(include)
+                .recursive(recursive)
+                .status(status)
+                .total(total)
+                .processed(processed)
+                .succeeded(succeeded)
+                .skipped(skipped)
+                .failed(failed)
+                .alreadyImported(alreadyImported)
+                .bytesProcessed(bytesProcessed)
+                .bytesPerSecond(bytesPerSecond)
+                .etaSeconds(etaSeconds)
+                .submittedAt(submittedAt)
+                .startedAt(startedAt)
+                .finishedAt(finishedAt)
+                .error(error)
+                .issues(List.copyOf(issues))
+                .omittedIssues(omittedIssues)
+                .build();
+    }
+}
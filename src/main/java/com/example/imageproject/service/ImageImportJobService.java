@@ -0,0 +1,116 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.dto.ImageImportJobInfo;
+import com.example.imageproject.dto.ImageImportJobStatus;
+import com.example.imageproject.exception.ImportJobNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Service
+@Slf4j
+public class ImageImportJobService {
+
+    private final ImageImportService imageImportService;
+    private final ExecutorService jobExecutor;
+    private final long retentionMinutes;
+    private final int reportMaxIssues;
+    private final Map<String, ImageImportJob> jobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ImageImportJobService(ImageImportService imageImportService,
+                                 @Value("${image.import.job-concurrency:2}") int jobConcurrency,
+                                 @Value("${image.import.job-retention-minutes:60}") long retentionMinutes,
+                                 @Value("${image.import.report-max-issues:1000}") int reportMaxIssues) {
+        this.imageImportService = imageImportService;
+        this.jobExecutor = Executors.newFixedThreadPool(jobConcurrency);
+        this.retentionMinutes = retentionMinutes;
+        this.reportMaxIssues = reportMaxIssues;
+    }
+
+
+    public ImageImportJobInfo submit(String directoryPath, String include, boolean recursive, String username) {
+        if (!Files.isDirectory(Path.of(directoryPath))) {
+            throw new IllegalArgumentException("Not a readable directory: " + directoryPath);
+        }
+        imageImportService.createMatcher(include);
+        String jobId = UUID.randomUUID().toString();
+        ImageImportJob job = new ImageImportJob(jobId, username, directoryPath, include, recursive, createReportFile(jobId), reportMaxIssues);
+        jobs.put(job.getJobId(), job);
+        jobExecutor.execute(() -> run(job));
+        log.info("Import job " + job.getJobId() + " submitted for " + username + ": " + directoryPath);
+        return job.toInfo();
+    }
+
+    private Path createReportFile(String jobId) {
+        try {
+            return Files.createTempFile("import-" + jobId, ".ndjson");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void run(ImageImportJob job) {
+        if (!job.start()) {
+            return;
+        }
+        try {
+            imageImportService.importDirectory(job);
+            job.finish(job.isCancelRequested() ? ImageImportJobStatus.CANCELLED : ImageImportJobStatus.COMPLETED, null);
+        } catch (RuntimeException e) {
+            log.error("Import job " + job.getJobId() + " failed: ", e);
+            job.finish(ImageImportJobStatus.FAILED, e.getMessage());
+        }
+        log.info("Import job " + job.getJobId() + " finished: " + job.toInfo().getStatus());
+    }
+
+    public ImageImportJobInfo getJob(String jobId, String username, boolean admin) {
+        return findJob(jobId, username, admin).toInfo();
+    }
+
+    public void writeReport(String jobId, String username, boolean admin, OutputStream outputStream) throws IOException {
+        findJob(jobId, username, admin).writeReport(outputStream);
+    }
+
+    public ImageImportJobInfo cancel(String jobId, String username, boolean admin) {
+        ImageImportJob job = findJob(jobId, username, admin);
+        job.cancel();
+        return job.toInfo();
+    }
+
+    private ImageImportJob findJob(String jobId, String username, boolean admin) {
+        ImageImportJob job = jobs.get(jobId);
+        if (job == null || !(admin || job.getUsername().equals(username))) {
+            throw new ImportJobNotFoundException(jobId);
+        }
+        return job;
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void removeFinishedJobs() {
+        LocalDateTime limit = LocalDateTime.now().minusMinutes(retentionMinutes);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(limit) && job.deleteReportIfUnread());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.values().forEach(ImageImportJob::cancel);
+        jobExecutor.shutdown();
+        jobs.values().forEach(ImageImportJob::deleteReport);
+    }
+}
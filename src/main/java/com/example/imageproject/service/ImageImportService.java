@@ -0,0 +1,444 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.domain.CustomUser;
+import com.example.imageproject.domain.Image;
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.domain.ImageImportCheckpoint;
+import com.example.imageproject.dto.ImageDimensions;
+import com.example.imageproject.dto.ImageImportFileResult;
+import com.example.imageproject.dto.ImageImportReport;
+import com.example.imageproject.dto.ImageImportStatus;
+import com.example.imageproject.dto.StoredContent;
+import com.example.imageproject.repository.ImageImportCheckpointRepository;
+import com.example.imageproject.repository.ImageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Service
+@Slf4j
+public class ImageImportService {
+
+    private static final String IMPORT_CANCELLED = "Import was cancelled.";
+
+    private final CustomUserService customUserService;
+    private final ImageRepository imageRepository;
+    private final ImageImportCheckpointRepository imageImportCheckpointRepository;
+    private final ImageStorageService imageStorageService;
+    private final ImageContentService imageContentService;
+    private final ImageDimensionProbe imageDimensionProbe;
+    private final ImageConversionExecutor imageConversionExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final ForkJoinPool importPool;
+    private final int batchSize;
+    private final long batchMaxBytes;
+
+    @Autowired
+    public ImageImportService(CustomUserService customUserService, ImageRepository imageRepository, ImageImportCheckpointRepository imageImportCheckpointRepository,
+                              ImageStorageService imageStorageService, ImageContentService imageContentService, ImageDimensionProbe imageDimensionProbe, ImageConversionExecutor imageConversionExecutor, PlatformTransactionManager transactionManager,
+                              @Value("${image.import.parallelism:0}") int parallelism,
+                              @Value("${image.import.batch-size:100}") int batchSize,
+                              @Value("${image.import.batch-max-bytes:268435456}") long batchMaxBytes) {
+        this.customUserService = customUserService;
+        this.imageRepository = imageRepository;
+        this.imageImportCheckpointRepository = imageImportCheckpointRepository;
+        this.imageStorageService = imageStorageService;
+        this.imageContentService = imageContentService;
+        this.imageDimensionProbe = imageDimensionProbe;
+        this.imageConversionExecutor = imageConversionExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.importPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.batchSize = batchSize;
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+
+    public PathMatcher createMatcher(String include) {
+        return FileSystems.getDefault().getPathMatcher("glob:" + include);
+    }
+
+    public void importDirectory(ImageImportJob job) {
+        Path root = Path.of(job.getDirectoryPath()).toAbsolutePath().normalize();
+        CustomUser customUser = customUserService.findCustomUserByUsername(job.getUsername());
+        DirectoryImportVisitor visitor = new DirectoryImportVisitor(root, createMatcher(job.getInclude()), customUser, job);
+        int maxDepth = job.isRecursive() ? Integer.MAX_VALUE : 1;
+        try {
+            job.setTotal(countFiles(root, visitor, maxDepth));
+            Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth, visitor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        visitor.flush();
+    }
+
+    private Integer countFiles(Path root, DirectoryImportVisitor visitor, int maxDepth) {
+        try (Stream<Path> paths = Files.walk(root, maxDepth)) {
+            return (int) paths.filter(Files::isRegularFile)
+                    .filter(visitor::matches)
+                    .count();
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Counting the files of " + root + " failed, the import runs without ETA: ", e);
+            return null;
+        }
+    }
+
+
+    public ImageImportReport importUploads(List<MultipartFile> files, String username) {
+        CustomUser customUser = customUserService.findCustomUserByUsername(username);
+        List<Callable<PreparedImage>> tasks = new ArrayList<>();
+        for (MultipartFile file : files) {
+            tasks.add(() -> prepareUpload(file, customUser));
+        }
+        List<PreparedImage> prepared = new ArrayList<>();
+        for (Future<PreparedImage> future : importPool.invokeAll(tasks)) {
+            prepared.add(join(future));
+        }
+
+        List<PreparedImage> ready = prepared.stream()
+                .filter(preparedImage -> preparedImage.reference != null)
+                .collect(Collectors.toList());
+        if (!ready.isEmpty()) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> saveImages(ready, customUser));
+            } catch (RuntimeException e) {
+                log.error("Saving uploaded images failed: ", e);
+                for (PreparedImage preparedImage : ready) {
+                    preparedImage.result.setStatus(ImageImportStatus.FAILED);
+                    preparedImage.result.setMessage("Saving the image failed.");
+                    preparedImage.result.setImageId(null);
+                }
+            }
+        }
+        ImageImportReport report = new ImageImportReport();
+        prepared.forEach(preparedImage -> report.add(preparedImage.result));
+        return report;
+    }
+
+
+    private void importBatch(List<ImportFile> batch, CustomUser customUser, ImageImportJob job) {
+        Set<String> completed = imageImportCheckpointRepository.findCompletedPathHashes(customUser.getCustomUserId(),
+                batch.stream().map(importFile -> importFile.pathHash).collect(Collectors.toList()));
+        List<Callable<PreparedImage>> tasks = new ArrayList<>();
+        for (ImportFile importFile : batch) {
+            if (completed.contains(importFile.pathHash)) {
+                job.addAlreadyImported(importFile.size);
+            } else {
+                tasks.add(() -> prepare(importFile, customUser, job));
+            }
+        }
+        List<PreparedImage> prepared = new ArrayList<>();
+        for (Future<PreparedImage> future : importPool.invokeAll(tasks)) {
+            prepared.add(join(future));
+        }
+
+        // only stored files are saved and checkpointed; failed, rejected and cancelled ones are looked at again on a resume
+        List<PreparedImage> finished = new ArrayList<>();
+        for (PreparedImage preparedImage : prepared) {
+            if (preparedImage.reference == null) {
+                job.add(preparedImage.result, preparedImage.importFile.size);
+            } else {
+                finished.add(preparedImage);
+            }
+        }
+        if (finished.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> save(finished, customUser));
+            for (PreparedImage preparedImage : finished) {
+                job.add(preparedImage.result, preparedImage.importFile.size);
+            }
+        } catch (RuntimeException e) {
+            log.error("Saving an import batch failed: ", e);
+            for (PreparedImage preparedImage : finished) {
+                job.add(failed(preparedImage.result.getFileName(), "Saving the image failed."), preparedImage.importFile.size);
+            }
+        }
+    }
+
+    private void save(List<PreparedImage> finished, CustomUser customUser) {
+        List<ImageImportCheckpoint> checkpoints = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (PreparedImage preparedImage : finished) {
+            checkpoints.add(ImageImportCheckpoint.builder()
+                    .customUserId(customUser.getCustomUserId())
+                    .pathHash(preparedImage.importFile.pathHash)
+                    .path(preparedImage.importFile.path.toString())
+                    .completedAt(now)
+                    .build());
+        }
+        saveImages(finished, customUser);
+        imageImportCheckpointRepository.saveAll(checkpoints);
+    }
+
+    private void saveImages(List<PreparedImage> preparedImages, CustomUser customUser) {
+        List<ImageContent> references = new ArrayList<>();
+        for (PreparedImage preparedImage : preparedImages) {
+            if (preparedImage.reference != null) {
+                references.add(preparedImage.reference);
+            }
+        }
+        Map<String, ImageContent> contents = imageContentService.addReferences(customUser.getCustomUserId(), references);
+        List<Image> images = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (PreparedImage preparedImage : preparedImages) {
+            if (preparedImage.reference != null) {
+                ImageContent content = contents.get(preparedImage.reference.getSha256());
+                if (preparedImage.storedContent != null) {
+                    imageContentService.discardDuplicate(preparedImage.storedContent, content);
+                }
+                images.add(Image.builder()
+                        .content(imageContentService.getReference(content.getId()))
+                        .blobKey(content.getBlobKey())
+                        .formatName(content.getFormatName())
+                        .encryption(content.getEncryption())
+                        .createdAt(now)
+                        .customUser(customUser)
+                        .build());
+            }
+        }
+        Iterator<Image> saved = imageRepository.saveInBatches(images).iterator();
+        for (PreparedImage preparedImage : preparedImages) {
+            if (preparedImage.reference != null) {
+                preparedImage.result.setImageId(saved.next().getId());
+            }
+        }
+    }
+
+
+    private PreparedImage prepare(ImportFile importFile, CustomUser customUser, ImageImportJob job) {
+        Path path = importFile.path;
+        String fileName = importFile.relativePath;
+        try {
+            if (job.isCancelRequested()) {
+                return new PreparedImage(importFile, skipped(fileName, IMPORT_CANCELLED));
+            }
+            String rejection = validate(Files.probeContentType(path), importFile.size);
+            if (rejection != null) {
+                return new PreparedImage(importFile, skipped(fileName, rejection));
+            }
+            ImageDimensions imageSize = imageDimensionProbe.probe(path);
+            return store(importFile, customUser, fileName, imageSize, () -> Files.newInputStream(path), importFile.size, path);
+        } catch (Exception e) {
+            log.warn("Preparing " + path + " for import failed: ", e);
+            return new PreparedImage(importFile, failed(fileName, e.getMessage()));
+        }
+    }
+
+    private PreparedImage prepareUpload(MultipartFile file, CustomUser customUser) {
+        String fileName = file.getOriginalFilename();
+        try {
+            String rejection = validate(file.getContentType(), file.getSize());
+            if (rejection != null) {
+                return new PreparedImage(null, skipped(fileName, rejection));
+            }
+            ImageDimensions imageSize;
+            try (InputStream inputStream = file.getInputStream()) {
+                imageSize = imageDimensionProbe.probe(inputStream);
+            }
+            if (imageSize.fitsWithin(ImageService.MAX_DIMENSION, ImageService.MAX_DIMENSION)) {
+                return store(null, customUser, fileName, imageSize, file, file.getSize(), null);
+            }
+            Path uploadedFile = Files.createTempFile("upload", "." + imageSize.getFormatName());
+            try {
+                file.transferTo(uploadedFile);
+                return store(null, customUser, fileName, imageSize, file, file.getSize(), uploadedFile);
+            } finally {
+                Files.deleteIfExists(uploadedFile);
+            }
+        } catch (Exception e) {
+            log.warn("Preparing upload " + fileName + " failed: ", e);
+            return new PreparedImage(null, failed(fileName, e.getMessage()));
+        }
+    }
+
+    // A file that fits is hashed first, so a duplicate is referenced without writing a blob. A resized image only
+    // exists once it is written, so its sha256 is taken while it is stored and it is deduplicated by the resized bytes.
+    private PreparedImage store(ImportFile importFile, CustomUser customUser, String fileName, ImageDimensions imageSize,
+                                InputStreamSource source, long size, Path resizeSource) throws IOException {
+        boolean fits = imageSize.fitsWithin(ImageService.MAX_DIMENSION, ImageService.MAX_DIMENSION);
+        ImageImportFileResult result = fits
+                ? result(fileName, ImageImportStatus.UPLOADED, ImageService.UPLOAD_SUCCESS)
+                : result(fileName, ImageImportStatus.RESIZED, ImageService.IMAGE_DIMENSIONS);
+        if (fits) {
+            ImageContent duplicate = imageContentService.findDuplicate(customUser.getCustomUserId(), source);
+            if (duplicate != null) {
+                return new PreparedImage(importFile, result, duplicate, null);
+            }
+            try (InputStream inputStream = source.getInputStream()) {
+                return stored(importFile, result, imageStorageService.store(inputStream, size), imageSize.getFormatName());
+            }
+        }
+        return stored(importFile, result, resizeAndStore(resizeSource, imageSize.getFormatName()), imageSize.getFormatName());
+    }
+
+    private PreparedImage stored(ImportFile importFile, ImageImportFileResult result, StoredContent storedContent, String formatName) {
+        return new PreparedImage(importFile, result, imageContentService.newReference(storedContent, formatName), storedContent);
+    }
+
+    private String validate(String contentType, long size) {
+        if (size == 0 || contentType == null) {
+            return ImageService.UPLOAD_EMPTY;
+        } else if (!contentType.equals(ImageService.CONTENT_TYPE_JPG) && !contentType.equals(ImageService.CONTENT_TYPE_PNG)) {
+            return ImageService.CONTENT_TYPE_ALLOWED;
+        }
+        return null;
+    }
+
+    private StoredContent resizeAndStore(Path path, String formatName) throws IOException {
+        return imageStorageService.store(outputStream ->
+                imageConversionExecutor.resize(new FileSystemResource(path), outputStream, ImageService.MAX_DIMENSION, ImageService.MAX_DIMENSION, formatName));
+    }
+
+    private PreparedImage join(Future<PreparedImage> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Directory import was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static String hashPath(Path path) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(path.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ImageImportFileResult result(String fileName, ImageImportStatus status, String message) {
+        return ImageImportFileResult.builder()
+                .fileName(fileName)
+                .status(status)
+                .message(message)
+                .build();
+    }
+
+    private static ImageImportFileResult skipped(String fileName, String message) {
+        return result(fileName, ImageImportStatus.SKIPPED, message);
+    }
+
+    private static ImageImportFileResult failed(String fileName, String message) {
+        return result(fileName, ImageImportStatus.FAILED, message);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        importPool.shutdownNow();
+    }
+
+
+    private class DirectoryImportVisitor extends SimpleFileVisitor<Path> {
+        private final Path root;
+        private final PathMatcher matcher;
+        private final boolean matchRelativePath;
+        private final CustomUser customUser;
+        private final ImageImportJob job;
+        private final List<ImportFile> batch = new ArrayList<>();
+        private long batchBytes;
+
+        private DirectoryImportVisitor(Path root, PathMatcher matcher, CustomUser customUser, ImageImportJob job) {
+            this.root = root;
+            this.matcher = matcher;
+            this.matchRelativePath = job.getInclude().contains("/");
+            this.customUser = customUser;
+            this.job = job;
+        }
+
+        private boolean matches(Path file) {
+            return matcher.matches(matchRelativePath ? root.relativize(file) : file.getFileName());
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (job.isCancelRequested()) {
+                return FileVisitResult.TERMINATE;
+            }
+            if (!attributes.isRegularFile() || !matches(file)) {
+                return FileVisitResult.CONTINUE;
+            }
+            if (!batch.isEmpty() && (batch.size() >= batchSize || batchBytes + attributes.size() > batchMaxBytes)) {
+                flush();
+            }
+            batch.add(new ImportFile(file, root.relativize(file).toString(), hashPath(file), attributes.size()));
+            batchBytes += attributes.size();
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+            log.warn("Reading " + file + " for import failed: ", e);
+            job.add(failed(root.relativize(file).toString(), e.getMessage()), 0);
+            return job.isCancelRequested() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+        }
+
+        private void flush() {
+            if (!batch.isEmpty() && !job.isCancelRequested()) {
+                importBatch(new ArrayList<>(batch), customUser, job);
+            }
+            batch.clear();
+            batchBytes = 0;
+        }
+    }
+
+    private static class ImportFile {
+        private final Path path;
+        private final String relativePath;
+        private final String pathHash;
+        private final long size;
+
+        private ImportFile(Path path, String relativePath, String pathHash, long size) {
+            this.path = path;
+            this.relativePath = relativePath;
+            this.pathHash = pathHash;
+            this.size = size;
+        }
+    }
+
+    private static class PreparedImage {
+        private final ImportFile importFile;
+        private final ImageImportFileResult result;
+        private final ImageContent reference;
+        // the blob written for this file, null when an existing content is referenced again
+        private final StoredContent storedContent;
+
+        private PreparedImage(ImportFile importFile, ImageImportFileResult result) {
+            this(importFile, result, null, null);
+        }
+
+        private PreparedImage(ImportFile importFile, ImageImportFileResult result, ImageContent reference, StoredContent storedContent) {
+            this.importFile = importFile;
+            this.result = result;
+            this.reference = reference;
+            this.storedContent = storedContent;
+        }
+    }
+}
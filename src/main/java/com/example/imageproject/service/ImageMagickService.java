@@ -1,25 +1,124 @@
 package com.example.imageproject.service;
 
-import org.im4java.core.ConvertCmd;
 import org.im4java.core.IMOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
 
 @Service
-public class ImageMagickService {
+@ConditionalOnProperty(name = "image.resize.engine", havingValue = "imagemagick")
+public class ImageMagickService implements ResizeEngine {
+
+    private static final int MAX_ERROR_LENGTH = 2000;
 
+    private final String command;
+    private final Path workDirectory;
 
+    // convert writes its output to a file: it sits in an owner-only directory next to the blobs, not in the shared
+    // temp dir, and whatever a crash left behind there is removed on startup
+    @Autowired
+    public ImageMagickService(@Value("${image.resize.imagemagick-command:convert}") String command,
+                              @Value("${image.storage.root:image-store}") String storageRoot) throws IOException {
+        this.command = command;
+        this.workDirectory = Path.of(storageRoot).toAbsolutePath().normalize().resolve("convert");
+        Files.createDirectories(workDirectory);
+        if (workDirectory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(workDirectory, PosixFilePermissions.fromString("rwx------"));
+        }
+        try (Stream<Path> leftovers = Files.list(workDirectory)) {
+            for (Path leftover : (Iterable<Path>) leftovers::iterator) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    @Override
+    public void resize(InputStreamSource source, OutputStream target, int maxWidth, int maxHeight, String formatName) throws IOException {
+        IMOperation op = new IMOperation();
+        op.addImage(input(source, formatName));
+        op.resize(maxWidth, maxHeight, '>');
+        convert(op, source, target, formatName);
+    }
+
+    @Override
+    public void fill(InputStreamSource source, OutputStream target, int width, int height, String formatName) throws IOException {
+        IMOperation op = new IMOperation();
+        op.addImage(input(source, formatName));
+        op.resize(width, height, '^');
+        op.gravity("center");
+        op.extent(width, height);
+        convert(op, source, target, formatName);
+    }
+
+    private static boolean isFile(InputStreamSource source) {
+        return source instanceof Resource && ((Resource) source).isFile();
+    }
+
+    // a file is read by convert itself, any other source is piped into its stdin
+    private static String input(InputStreamSource source, String formatName) throws IOException {
+        return isFile(source) ? ((Resource) source).getFile().toString() : formatName + ":-";
+    }
 
-    public void resizeImage(String inputFilePath, String outputFilePath, int width, int height) {
+    // The process is started here rather than through ConvertCmd, which keeps no handle to it: an interrupted
+    // (timed out) conversion has to kill convert, otherwise it keeps running after the worker gave up on it.
+    private void convert(IMOperation op, InputStreamSource source, OutputStream target, String formatName) throws IOException {
+        Path output = Files.createTempFile(workDirectory, "imagemagick", "." + formatName);
+        Path errors = Files.createTempFile(workDirectory, "imagemagick", ".log");
         try {
-            ConvertCmd cmd = new ConvertCmd();
-            IMOperation op = new IMOperation();
-            op.addImage(inputFilePath);
-            op.resize(width, height);
-            op.addImage(outputFilePath);
-            cmd.run(op);
-        } catch (Exception e) {
-            e.printStackTrace();
+            op.addImage(formatName + ":" + output);
+            List<String> commandLine = new ArrayList<>();
+            commandLine.add(command);
+            commandLine.addAll(op.getCmdArgs());
+            Process process = new ProcessBuilder(commandLine)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(errors.toFile())
+                    .start();
+            try (OutputStream stdin = process.getOutputStream()) {
+                if (!isFile(source)) {
+                    try (InputStream inputStream = source.getInputStream()) {
+                        inputStream.transferTo(stdin);
+                    }
+                }
+            } catch (IOException e) {
+                // a broken pipe means convert exited early and the exit code below tells why, otherwise the source failed
+                if (process.isAlive()) {
+                    process.destroyForcibly();
+                    throw e;
+                }
+            }
+            int exitCode;
+            try {
+                exitCode = process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("ImageMagick conversion was interrupted.");
+            }
+            if (exitCode != 0) {
+                String message = Files.readString(errors, StandardCharsets.UTF_8).strip();
+                throw new IOException("ImageMagick conversion failed with exit code " + exitCode + ": "
+                        + message.substring(0, Math.min(message.length(), MAX_ERROR_LENGTH)));
+            }
+            Files.copy(output, target);
+        } finally {
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(errors);
         }
     }
 }
@@ -0,0 +1,161 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.domain.Image;
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.domain.ImageRendition;
+import com.example.imageproject.dto.ImageDimensions;
+import com.example.imageproject.dto.StoredContent;
+import com.example.imageproject.repository.BlobStore;
+import com.example.imageproject.repository.ImageContentRepository;
+import com.example.imageproject.repository.ImageRenditionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@Service
+@Slf4j
+public class ImageRenditionService {
+
+    private final ImageContentRepository imageContentRepository;
+    private final ImageRenditionRepository imageRenditionRepository;
+    private final ImageStorageService imageStorageService;
+    private final ImageDimensionProbe imageDimensionProbe;
+    private final ImageConversionExecutor imageConversionExecutor;
+    private final BlobStore blobStore;
+    private final TransactionTemplate transactionTemplate;
+    private final int[] sizes;
+    private final ThreadPoolExecutor executor;
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ImageRenditionService(ImageContentRepository imageContentRepository, ImageRenditionRepository imageRenditionRepository,
+                                 ImageStorageService imageStorageService, ImageDimensionProbe imageDimensionProbe, ImageConversionExecutor imageConversionExecutor,
+                                 BlobStore blobStore, PlatformTransactionManager transactionManager,
+                                 @Value("${image.renditions.sizes:128,512,2048}") int[] sizes,
+                                 @Value("${image.renditions.concurrency:1}") int concurrency,
+                                 @Value("${image.renditions.queue-capacity:256}") int queueCapacity) {
+        this.imageContentRepository = imageContentRepository;
+        this.imageRenditionRepository = imageRenditionRepository;
+        this.imageStorageService = imageStorageService;
+        this.imageDimensionProbe = imageDimensionProbe;
+        this.imageConversionExecutor = imageConversionExecutor;
+        this.blobStore = blobStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.sizes = Arrays.stream(sizes).filter(size -> size > 0).distinct().sorted().toArray();
+        // This pool only holds the backlog of contents waiting for renditions; the resizing itself runs on the
+        // shared ImageConversionExecutor, which blocks this thread until a conversion slot is free.
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "image-rendition-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+
+    public void generateAfterCommit(Long contentId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            generateAsync(contentId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                generateAsync(contentId);
+            }
+        });
+    }
+
+    public void generateAsync(Long contentId) {
+        if (sizes.length == 0 || !pending.add(contentId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(contentId);
+                } finally {
+                    pending.remove(contentId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(contentId);
+            log.warn("Rendition queue is full, skipping image content " + contentId);
+        }
+    }
+
+    public ImageRendition findRendition(Long contentId, int size) {
+        return imageRenditionRepository.findFirstByContentIdAndLongEdgeGreaterThanEqualOrderByLongEdgeAsc(contentId, size)
+                .orElse(null);
+    }
+
+    private void generate(Long contentId) {
+        ImageContent content = imageContentRepository.findById(contentId).orElse(null);
+        if (content == null || content.getLongEdge() != null) {
+            return;
+        }
+        Set<Integer> existing = imageRenditionRepository.findByContentId(contentId).stream()
+                .map(ImageRendition::getLongEdge)
+                .collect(Collectors.toSet());
+        Image source = Image.builder()
+                .blobKey(content.getBlobKey())
+                .encryption(content.getEncryption())
+                .build();
+        Resource plainSource = imageStorageService.decrypted(source);
+        try {
+            ImageDimensions dimensions;
+            try (InputStream inputStream = plainSource.getInputStream()) {
+                dimensions = imageDimensionProbe.probe(inputStream);
+            }
+            int longEdge = Math.max(dimensions.getWidth(), dimensions.getHeight());
+            String formatName = content.getFormatName() != null ? content.getFormatName() : dimensions.getFormatName();
+            for (int size : sizes) {
+                if (size >= longEdge || existing.contains(size)) {
+                    continue;
+                }
+                StoredContent storedContent = imageStorageService.store(outputStream ->
+                        imageConversionExecutor.resize(plainSource, outputStream, size, size, formatName));
+                imageRenditionRepository.save(ImageRendition.builder()
+                        .contentId(contentId)
+                        .longEdge(size)
+                        .blobKey(storedContent.getBlobKey())
+                        .formatName(formatName)
+                        .encryption(ImageStorageService.ENCRYPTION)
+                        .storedSize(blobStore.size(storedContent.getBlobKey()))
+                        .plainSize(storedContent.getPlainSize())
+                        .crc32(storedContent.getCrc32())
+                        .createdAt(LocalDateTime.now())
+                        .build());
+            }
+            transactionTemplate.executeWithoutResult(status -> imageContentRepository.updateLongEdge(contentId, longEdge));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Generating renditions of image content " + contentId + " failed: ", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
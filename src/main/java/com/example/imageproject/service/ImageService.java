@@ -1,142 +1,354 @@
 package com.example.imageproject.service;
 
-import com.example.imageproject.config.AESEncryption;
 import com.example.imageproject.domain.CustomUser;
 import com.example.imageproject.domain.Image;
-import com.example.imageproject.dto.ImageInfo;
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.domain.ImageRendition;
+import com.example.imageproject.dto.ImageCacheStats;
+import com.example.imageproject.dto.ImageDimensions;
+import com.example.imageproject.dto.ImageDownload;
+import com.example.imageproject.dto.OwnedImage;
+import com.example.imageproject.dto.StoredContent;
 import com.example.imageproject.exception.IOExceptionImpl;
 import com.example.imageproject.exception.ImageNotBelongsToTheUserException;
 import com.example.imageproject.exception.ImageNotFoundException;
 import com.example.imageproject.repository.ImageRepository;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.Optional;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 @Service
 @Transactional
+@Slf4j
 public class ImageService {
 
     private CustomUserService customUserService;
     private ImageRepository imageRepository;
-    private AESEncryption aesEncryption;
-    private ImageMagickService imageMagickService;
+    private ImageStorageService imageStorageService;
+    private ImageConversionExecutor imageConversionExecutor;
+    private ImageDimensionProbe imageDimensionProbe;
+    private ImageContentService imageContentService;
+    private ImageExportService imageExportService;
+    private DecryptedImageCache decryptedImageCache;
+    private ImageRenditionService imageRenditionService;
+    private ResizedImageCache resizedImageCache;
+    private TransactionTemplate transactionTemplate;
+    private TransactionTemplate readOnlyTransactionTemplate;
 
-    private static final String UPLOAD_SUCCESS = "Image uploaded successfully.";
-    private static final String UPLOAD_EMPTY = "Please upload a file.";
-    private static final String CONTENT_TYPE_JPG = "image/jpeg";
-    private static final String CONTENT_TYPE_PNG = "image/png";
-    private static final String CONTENT_TYPE_ALLOWED = "Only JPG and PNG formats are allowed.";
-    private static final String IMAGE_DIMENSIONS = "Image dimensions exceed the limits (5000x5000), so it is converted to it.";
+    static final int MAX_DIMENSION = 5000;
+    static final String UPLOAD_SUCCESS = "Image uploaded successfully.";
+    static final String UPLOAD_EMPTY = "Please upload a file.";
+    static final String CONTENT_TYPE_JPG = "image/jpeg";
+    static final String CONTENT_TYPE_PNG = "image/png";
+    static final String CONTENT_TYPE_ALLOWED = "Only JPG and PNG formats are allowed.";
+    static final String IMAGE_DELETED = "Image deleted successfully.";
+    static final String IMAGE_DIMENSIONS = "Image dimensions exceed the limits (5000x5000), so it is converted to it and uploaded.";
+    static final String FIT_CONTAIN = "contain";
+    static final String FIT_COVER = "cover";
 
 
     @Autowired
-    public ImageService(CustomUserService customUserService, ImageRepository imageRepository, AESEncryption aesEncryption, ImageMagickService imageMagickService) {
+    public ImageService(CustomUserService customUserService, ImageRepository imageRepository, ImageStorageService imageStorageService, ImageConversionExecutor imageConversionExecutor, ImageDimensionProbe imageDimensionProbe,
+                        ImageContentService imageContentService, ImageExportService imageExportService,
+                        DecryptedImageCache decryptedImageCache, ImageRenditionService imageRenditionService, ResizedImageCache resizedImageCache,
+                        PlatformTransactionManager transactionManager) {
         this.customUserService = customUserService;
         this.imageRepository = imageRepository;
-        this.aesEncryption = aesEncryption;
-        this.imageMagickService = imageMagickService;
+        this.imageStorageService = imageStorageService;
+        this.imageConversionExecutor = imageConversionExecutor;
+        this.imageDimensionProbe = imageDimensionProbe;
+        this.imageContentService = imageContentService;
+        this.imageExportService = imageExportService;
+        this.decryptedImageCache = decryptedImageCache;
+        this.imageRenditionService = imageRenditionService;
+        this.resizedImageCache = resizedImageCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
     }
 
 
-    public String uploadOnePicture(MultipartFile file, String username) {
-        String message = "";
+    // Uploads and downloads run outside the class-wide transaction: encrypting, writing and streaming must not hold a
+    // connection, the rows are written by saveImage's own transaction and read by the repositories' short ones.
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public CompletableFuture<String> uploadOnePicture(MultipartFile file, String username) {
         try {
             String contentType = file.getContentType();
             if (file.isEmpty() || contentType == null) {
-                message = UPLOAD_EMPTY;
+                return CompletableFuture.completedFuture(UPLOAD_EMPTY);
             } else if (!contentType.equals(CONTENT_TYPE_JPG) && !contentType.equals(CONTENT_TYPE_PNG)) {
-                message = CONTENT_TYPE_ALLOWED;
-            } else {
-                BufferedImage imageSize = ImageIO.read(file.getInputStream());
-                if (imageSize.getWidth() <= 5000 && imageSize.getHeight() <= 5000) {
-                    byte[] imageData = file.getBytes();
-                    saveAndEncryptImage(imageData, username);
-                    message = UPLOAD_SUCCESS;
-                } else {
-                    File convertedFile = File.createTempFile("converted", ".jpg");
-                    file.transferTo(convertedFile);
-                    imageMagickService.resizeImage(convertedFile.getAbsolutePath(), "output.jpg", 5000, 5000);
-                    message = IMAGE_DIMENSIONS;
+                return CompletableFuture.completedFuture(CONTENT_TYPE_ALLOWED);
+            }
+            ImageDimensions imageSize;
+            try (InputStream inputStream = file.getInputStream()) {
+                imageSize = imageDimensionProbe.probe(inputStream);
+            }
+            if (imageSize.fitsWithin(MAX_DIMENSION, MAX_DIMENSION)) {
+                CustomUser customUser = customUserService.findCustomUserByUsername(username);
+                ImageContent duplicate = imageContentService.findDuplicate(customUser.getCustomUserId(), file);
+                if (duplicate != null) {
+                    saveImage(duplicate, null, username);
+                    return CompletableFuture.completedFuture(UPLOAD_SUCCESS);
+                }
+                try (InputStream inputStream = file.getInputStream()) {
+                    saveAndEncryptImage(inputStream, file.getSize(), imageSize.getFormatName(), username);
                 }
+                return CompletableFuture.completedFuture(UPLOAD_SUCCESS);
             }
-            return message;
+            Path uploadedFile = Files.createTempFile("upload", "." + imageSize.getFormatName());
+            try {
+                file.transferTo(uploadedFile);
+            } catch (Exception e) {
+                Files.deleteIfExists(uploadedFile);
+                throw e;
+            }
+            return imageConversionExecutor.submit(new FileSystemResource(uploadedFile), MAX_DIMENSION, MAX_DIMENSION, imageSize.getFormatName())
+                    .whenComplete((resizedData, e) -> deleteTempFile(uploadedFile))
+                    .thenApply(resizedData -> {
+                        saveAndEncryptImage(resizedData, imageSize.getFormatName(), username);
+                        return IMAGE_DIMENSIONS;
+                    });
         } catch (Exception e) {
             throw new IOExceptionImpl(username);
         }
     }
 
 
-    public String saveImagesFromDirectory(String directoryPath, String username) {
-        File directory = new File(directoryPath);
-        File[] files = directory.listFiles();
-
+    private void deleteTempFile(Path path) {
         try {
-            String message = "Result:";
-
-            if (files != null) {
-                for (File file : files) {
-                    String contentType = Files.probeContentType(file.toPath());
-                    if (file.length() == 0 || contentType == null) {
-                        message += "\n" + UPLOAD_EMPTY;
-                    } else if (!contentType.equals(CONTENT_TYPE_JPG) && !contentType.equals(CONTENT_TYPE_PNG)) {
-                        message += "\n" + CONTENT_TYPE_ALLOWED;
-                    } else {
-                        BufferedImage imageSize = ImageIO.read(new FileInputStream(file));
-                        if (imageSize.getWidth() <= 5000 && imageSize.getHeight() <= 5000) {
-                            byte[] imageData = Files.readAllBytes(file.toPath());
-                            saveAndEncryptImage(imageData, username);
-                            message = message + "\n" + UPLOAD_SUCCESS;
-                        } else {
-                            imageMagickService.resizeImage(file.getPath(), "output.jpg", 5000, 5000);
-                            message = "\n" + IMAGE_DIMENSIONS;
-                        }
-                    }
-                }
-            }
-            return message;
-        } catch (Exception e) {
-            throw new RuntimeException();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete temporary upload file: " + path, e);
         }
     }
 
 
-    public void saveAndEncryptImage(byte[] imageData, String username) {
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void saveAndEncryptImage(byte[] imageData, String formatName, String username) {
+        saveAndEncryptImage(new ByteArrayInputStream(imageData), imageData.length, formatName, username);
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void saveAndEncryptImage(InputStream inputStream, long size, String formatName, String username) {
         try {
+            StoredContent storedContent = imageStorageService.store(inputStream, size);
+            saveImage(imageContentService.newReference(storedContent, formatName), storedContent, username);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // storedContent is the blob written for this upload, null when an existing content is referenced again.
+    private void saveImage(ImageContent reference, StoredContent storedContent, String username) {
+        transactionTemplate.executeWithoutResult(status -> {
             CustomUser customUser = customUserService.findCustomUserByUsername(username);
+            ImageContent content = imageContentService.addReference(customUser.getCustomUserId(), reference);
+            if (storedContent != null) {
+                imageContentService.discardDuplicate(storedContent, content);
+            }
             Image image = new Image();
-            image.setData(aesEncryption.encrypt(imageData));
+            image.setContent(imageContentService.getReference(content.getId()));
+            image.setBlobKey(content.getBlobKey());
+            image.setFormatName(content.getFormatName());
+            image.setEncryption(content.getEncryption());
+            image.setCreatedAt(LocalDateTime.now());
             image.setCustomUser(customUser);
             imageRepository.save(image);
+            imageRenditionService.generateAfterCommit(content.getId());
+        });
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ImageDownload getImageById(Long imageId, String username, Integer size) {
+        try {
+            return toDownload(findOwnedImage(imageId, username), size);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    public ImageInfo getImageById(Long imageId, String username) {
-        CustomUser customUser = customUserService.findCustomUserByUsername(username);
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public CompletableFuture<ImageDownload> getResizedImage(Long imageId, String username, Integer width, Integer height, String fit) {
+        if ((width != null && (width < 1 || width > MAX_DIMENSION)) || (height != null && (height < 1 || height > MAX_DIMENSION))) {
+            throw new IllegalArgumentException("Width and height must be between 1 and " + MAX_DIMENSION + ".");
+        }
+        if (!FIT_CONTAIN.equals(fit) && !FIT_COVER.equals(fit)) {
+            throw new IllegalArgumentException("Fit must be " + FIT_CONTAIN + " or " + FIT_COVER + ": " + fit);
+        }
+        OwnedImage ownedImage;
+        Image source;
         try {
-            Image image = findImageByIdInRepository(imageId);
-            ImageInfo imageInfo = new ImageInfo();
-            if (customUser.getImages().contains(image)) {
-                imageInfo.setData(aesEncryption.decrypt(image.getData()));
-                return imageInfo;
-            } else {
-                throw new ImageNotBelongsToTheUserException(username);
-            }
+            ownedImage = findOwnedImage(imageId, username);
+            source = ownedImage.getBlobKey() == null
+                    ? ImageStorageService.detachedCopy(findImageByIdInRepository(imageId))
+                    : Image.builder()
+                    .id(imageId)
+                    .blobKey(ownedImage.getBlobKey())
+                    .encryption(ownedImage.getEncryption())
+                    .build();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        // fill<w>x<h> is cropped to exactly that size, fit<w>x<h> fits inside it; cover with a single side is a plain fit
+        boolean fill = FIT_COVER.equals(fit) && width != null && height != null;
+        String variant = (fill ? "fill" : "fit") + (width == null ? "" : width) + "x" + (height == null ? "" : height);
+        String key = ResizedImageCache.key(ownedImage.getCustomUserId(), ownedImage.getContentId(), imageId, variant);
+        String eTag = "\"" + (ownedImage.getSha256() != null ? ownedImage.getSha256() : "image-" + imageId) + "-" + variant + "\"";
+        Supplier<CompletableFuture<byte[]>> generator = () -> resize(source, ownedImage.getFormatName(), width, height, fill);
+        return resizedImageCache.get(key, generator)
+                .thenApply(cachedVariant -> ImageDownload.builder()
+                        .eTag(eTag)
+                        .contentLength(cachedVariant.getPlainSize())
+                        .writer((offset, length, outputStream) -> writeResized(imageId, username, key, generator, cachedVariant, offset, length, outputStream))
+                        .build());
+    }
+
+    private void writeResized(Long imageId, String username, String key, Supplier<CompletableFuture<byte[]>> generator,
+                              ResizedImageCache.CachedVariant cachedVariant, long offset, long length, OutputStream outputStream) throws IOException {
+        if (cachedVariant.writeTo(offset, length, outputStream)) {
+            return;
+        }
+        if (imageRepository.findOwnedImage(imageId, username).isEmpty()) {
+            throw new ImageNotFoundException(imageId);
+        }
+        // evicted between the lookup and the body, nothing is written yet, so a regenerated copy can still be sent
+        ResizedImageCache.CachedVariant regenerated = resizedImageCache.get(key, generator).join();
+        if (regenerated.getPlainSize() != cachedVariant.getPlainSize() || !regenerated.writeTo(offset, length, outputStream)) {
+            throw new IOException("Resized image " + key + " was evicted before it could be sent.");
+        }
+    }
+
+    // The engine reads the original through a decrypting stream on the conversion worker, nothing plain touches the disk.
+    private CompletableFuture<byte[]> resize(Image source, String formatName, Integer width, Integer height, boolean fill) {
+        Resource plainSource = imageStorageService.decrypted(source);
+        if (formatName == null) {
+            // legacy rows that the migration has not reached yet, only the header is read
+            try (InputStream inputStream = plainSource.getInputStream()) {
+                formatName = imageDimensionProbe.probe(inputStream).getFormatName();
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(new UncheckedIOException(e));
+            }
+        }
+        return fill
+                ? imageConversionExecutor.submitFill(plainSource, width, height, formatName)
+                : imageConversionExecutor.submit(plainSource, width == null ? MAX_DIMENSION : width,
+                height == null ? MAX_DIMENSION : height, formatName);
+    }
+
+    private OwnedImage findOwnedImage(Long imageId, String username) throws ImageNotBelongsToTheUserException {
+        Optional<OwnedImage> ownedImage = imageRepository.findOwnedImage(imageId, username);
+        if (ownedImage.isPresent()) {
+            return ownedImage.get();
+        }
+        customUserService.findCustomUserByUsername(username);
+        findImageByIdInRepository(imageId);
+        throw new ImageNotBelongsToTheUserException(username);
+    }
+
+    private ImageDownload toDownload(OwnedImage ownedImage, Integer size) throws IOException {
+        ImageRendition rendition = null;
+        if (size != null && ownedImage.getContentId() != null) {
+            if (ownedImage.getLongEdge() == null) {
+                imageRenditionService.generateAsync(ownedImage.getContentId());
+            } else {
+                rendition = imageRenditionService.findRendition(ownedImage.getContentId(), size);
+            }
+        }
+        int variant = rendition == null ? 0 : rendition.getLongEdge();
+        String eTag = "\"" + (ownedImage.getSha256() != null ? ownedImage.getSha256() : "image-" + ownedImage.getId())
+                + (variant == 0 ? "" : "-" + variant) + "\"";
+        DecryptedImageCache.CachedImage cachedImage = decryptedImageCache.get(ownedImage.getCustomUserId(), ownedImage.getId(), variant);
+        if (cachedImage != null) {
+            return ImageDownload.builder()
+                    .eTag(eTag)
+                    .contentLength(cachedImage.size())
+                    .writer(cachedImage::writeTo)
+                    .build();
+        }
+        Image snapshot;
+        long contentLength;
+        if (rendition != null) {
+            snapshot = Image.builder()
+                    .id(ownedImage.getId())
+                    .blobKey(rendition.getBlobKey())
+                    .encryption(rendition.getEncryption())
+                    .build();
+            contentLength = rendition.getPlainSize();
+        } else {
+            snapshot = ownedImage.getBlobKey() == null
+                    ? ImageStorageService.detachedCopy(findImageByIdInRepository(ownedImage.getId()))
+                    : Image.builder()
+                    .id(ownedImage.getId())
+                    .blobKey(ownedImage.getBlobKey())
+                    .encryption(ownedImage.getEncryption())
+                    .build();
+            if (ownedImage.getPlainSize() != null && ownedImage.getPlainSize() >= 0) {
+                contentLength = ownedImage.getPlainSize();
+            } else if (ImageStorageService.isSegmented(snapshot)) {
+                contentLength = imageStorageService.plainSize(snapshot);
+            } else {
+                // legacy formats only decrypt as a whole: the one decrypted buffer gives the length and serves the body
+                byte[] plainData = imageStorageService.readDecrypted(snapshot);
+                return ImageDownload.builder()
+                        .eTag(eTag)
+                        .contentLength((long) plainData.length)
+                        .writer((offset, length, outputStream) -> {
+                            if (offset == 0 && length == plainData.length) {
+                                decryptedImageCache.writeThrough(ownedImage.getCustomUserId(), ownedImage.getId(), variant, plainData.length,
+                                        outputStream, target -> target.write(plainData));
+                            } else {
+                                outputStream.write(plainData, (int) offset, (int) length);
+                            }
+                        })
+                        .build();
+            }
+        }
+        return ImageDownload.builder()
+                .eTag(eTag)
+                .contentLength(contentLength)
+                .writer((offset, length, outputStream) -> {
+                    if (offset == 0 && length == contentLength) {
+                        decryptedImageCache.writeThrough(ownedImage.getCustomUserId(), ownedImage.getId(), variant, contentLength, outputStream,
+                                target -> imageStorageService.writeDecrypted(snapshot, target));
+                    } else {
+                        imageStorageService.writeDecrypted(snapshot, offset, length, outputStream);
+                    }
+                })
+                .build();
+    }
+
+    public String deleteImage(Long imageId, String username) throws ImageNotBelongsToTheUserException {
+        CustomUser customUser = customUserService.findCustomUserByUsername(username);
+        Image image = findImageByIdInRepository(imageId);
+        if (image.getCustomUser() == null || !image.getCustomUser().getCustomUserId().equals(customUser.getCustomUserId())) {
+            throw new ImageNotBelongsToTheUserException(username);
+        }
+        imageRepository.delete(image);
+        decryptedImageCache.invalidate(imageId);
+        resizedImageCache.invalidateImage(imageId);
+        if (image.getContent() != null) {
+            imageContentService.releaseReference(image.getContent());
+        }
+        return IMAGE_DELETED;
     }
 
     public Image findImageByIdInRepository(Long imageId) {
@@ -148,25 +360,35 @@ public class ImageService {
     }
 
 
-    public byte[] getImages(String username) {
+    public ImageCacheStats getCacheStats() {
+        return decryptedImageCache.getStats();
+    }
+
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ImageDownload getImages(String username) {
         CustomUser customUser = customUserService.findCustomUserByUsername(username);
+        Long customUserId = customUser.getCustomUserId();
+        ImageExportService.ArchiveLayout layout = imageExportService.layout(customUserId);
+        if (layout == null) {
+            return ImageDownload.builder()
+                    .writer((offset, length, outputStream) ->
+                            readOnlyTransactionTemplate.executeWithoutResult(status -> writeImages(customUserId, username, outputStream)))
+                    .build();
+        }
+        return ImageDownload.builder()
+                .eTag(layout.getETag())
+                .contentLength(layout.getLength())
+                .writer((offset, length, outputStream) -> imageExportService.writeArchive(layout, offset, length, outputStream))
+                .build();
+    }
+
+    private void writeImages(Long customUserId, String username, OutputStream outputStream) {
         try {
-            ImageInfo imageInfo = new ImageInfo();
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-
-            for (int i = 0; i < customUser.getImages().size(); i++) {
-                Image image = customUser.getImages().get(i);
-                imageInfo.setData(aesEncryption.decrypt(image.getData()));
-                zipOutputStream.putNextEntry(new ZipEntry(image.getId() + ".jpg"));
-                zipOutputStream.write(imageInfo.getData());
-                zipOutputStream.closeEntry();
-            }
-            zipOutputStream.close();
-            byte[] zipData = outputStream.toByteArray();
-            return zipData;
-        } catch (Exception e) {
-            throw new IOExceptionImpl(username);
+            imageExportService.writeArchive(customUserId, outputStream);
+        } catch (IOException e) {
+            log.warn("Streaming the images of " + username + " failed: ", e);
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -0,0 +1,240 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.config.AESEncryption;
+import com.example.imageproject.config.SegmentedEncryption;
+import com.example.imageproject.domain.Image;
+import com.example.imageproject.domain.ImageEncryption;
+import com.example.imageproject.dto.StoredContent;
+import com.example.imageproject.repository.BlobStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32;
+
+@Service
+public class ImageStorageService {
+
+    static final ImageEncryption ENCRYPTION = ImageEncryption.AES_GCM_SEGMENTED;
+
+    private final BlobStore blobStore;
+    private final AESEncryption aesEncryption;
+    private final SegmentedEncryption segmentedEncryption;
+
+    @Autowired
+    public ImageStorageService(BlobStore blobStore, AESEncryption aesEncryption, SegmentedEncryption segmentedEncryption) {
+        this.blobStore = blobStore;
+        this.aesEncryption = aesEncryption;
+        this.segmentedEncryption = segmentedEncryption;
+    }
+
+
+    public StoredContent store(InputStream inputStream, long size) throws IOException {
+        ChecksumInputStream plainStream = new ChecksumInputStream(inputStream);
+        String blobKey = blobStore.put(outputStream -> segmentedEncryption.encrypt(plainStream, outputStream, size));
+        return new StoredContent(blobKey, plainStream.count, plainStream.crc32.getValue(), HexFormat.of().formatHex(plainStream.sha256.digest()));
+    }
+
+    public StoredContent store(BlobStore.ContentWriter plainWriter) throws IOException {
+        CRC32 crc32 = new CRC32();
+        MessageDigest sha256 = newSha256();
+        long[] count = new long[1];
+        String blobKey = blobStore.put(outputStream -> {
+            try (OutputStream encryptingStream = segmentedEncryption.encryptingStream(outputStream)) {
+                plainWriter.writeTo(new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] bytes, int offset, int length) throws IOException {
+                        encryptingStream.write(bytes, offset, length);
+                        crc32.update(bytes, offset, length);
+                        sha256.update(bytes, offset, length);
+                        count[0] += length;
+                    }
+                });
+            }
+        });
+        return new StoredContent(blobKey, count[0], crc32.getValue(), HexFormat.of().formatHex(sha256.digest()));
+    }
+
+    public void writeDecrypted(Image image, OutputStream outputStream) throws IOException {
+        if (isSegmented(image)) {
+            try (SeekableByteChannel channel = blobStore.openChannel(image.getBlobKey())) {
+                segmentedEncryption.decrypt(channel, outputStream);
+            }
+            return;
+        }
+        try {
+            if (image.getBlobKey() == null) {
+                outputStream.write(aesEncryption.decrypt(image.getData()));
+                return;
+            }
+            try (InputStream inputStream = blobStore.open(image.getBlobKey())) {
+                aesEncryption.decrypt(inputStream, outputStream);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Decrypting image " + image.getId() + " failed.", e);
+        }
+    }
+
+    public void writeDecrypted(Image image, long offset, long length, OutputStream outputStream) throws IOException {
+        if (isSegmented(image)) {
+            try (SeekableByteChannel channel = blobStore.openChannel(image.getBlobKey())) {
+                segmentedEncryption.decryptRange(channel, offset, length, outputStream);
+            }
+            return;
+        }
+        if (image.getBlobKey() == null) {
+            byte[] plainData = readDecrypted(image);
+            outputStream.write(plainData, Math.toIntExact(offset), Math.toIntExact(length));
+            return;
+        }
+        RangeOutputStream rangeOutputStream = new RangeOutputStream(outputStream, offset, length);
+        writeDecrypted(image, rangeOutputStream);
+        if (rangeOutputStream.position < offset + length) {
+            throw new IOException("Range " + offset + "+" + length + " is outside of image " + image.getId() + ".");
+        }
+    }
+
+    // The plain content as a source for the resize engines. It is decrypted while it is read, on whichever thread
+    // reads it, and never written to disk; legacy formats are small and are decrypted in memory.
+    public Resource decrypted(Image image) {
+        return new AbstractResource() {
+            @Override
+            public String getDescription() {
+                return "image " + image.getId() + (image.getBlobKey() == null ? "" : " (blob " + image.getBlobKey() + ")");
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                if (!isSegmented(image)) {
+                    return new ByteArrayInputStream(readDecrypted(image));
+                }
+                InputStream inputStream = blobStore.open(image.getBlobKey());
+                try {
+                    return segmentedEncryption.decryptingStream(inputStream);
+                } catch (IOException | RuntimeException e) {
+                    inputStream.close();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    public long plainSize(Image image) throws IOException {
+        if (isSegmented(image)) {
+            try (SeekableByteChannel channel = blobStore.openChannel(image.getBlobKey())) {
+                return segmentedEncryption.plainSize(channel);
+            }
+        }
+        return readDecrypted(image).length;
+    }
+
+    public byte[] readDecrypted(Image image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writeDecrypted(image, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    static Image detachedCopy(Image image) {
+        return Image.builder()
+                .id(image.getId())
+                .blobKey(image.getBlobKey())
+                .encryption(image.getEncryption())
+                .data(image.getBlobKey() == null ? image.getData() : null)
+                .build();
+    }
+
+    static boolean isSegmented(Image image) {
+        return image.getEncryption() == ImageEncryption.AES_GCM_SEGMENTED && image.getBlobKey() != null;
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class ChecksumInputStream extends FilterInputStream {
+        private final CRC32 crc32 = new CRC32();
+        private final MessageDigest sha256 = newSha256();
+        private long count;
+
+        private ChecksumInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                crc32.update(b);
+                sha256.update((byte) b);
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = in.read(bytes, offset, length);
+            if (read > 0) {
+                crc32.update(bytes, offset, read);
+                sha256.update(bytes, offset, read);
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("Skipping is not supported while storing an image.");
+        }
+    }
+
+    private static class RangeOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+        private final long start;
+        private final long end;
+        private long position;
+
+        private RangeOutputStream(OutputStream outputStream, long offset, long length) {
+            this.outputStream = outputStream;
+            this.start = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            long from = Math.max(start, position);
+            long to = Math.min(end, position + length);
+            if (from < to) {
+                outputStream.write(bytes, offset + (int) (from - position), (int) (to - from));
+            }
+            position += length;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.imageproject.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+@Service
+@ConditionalOnProperty(name = "image.resize.engine", havingValue = "java2d", matchIfMissing = true)
+public class Java2DResizeEngine implements ResizeEngine {
+
+    private static final String FORMAT_JPEG = "jpeg";
+
+    private final boolean subsampling;
+
+    @Autowired
+    public Java2DResizeEngine(@Value("${image.resize.subsampling:true}") boolean subsampling) {
+        this.subsampling = subsampling;
+    }
+
+    @Override
+    public void resize(InputStreamSource source, OutputStream target, int maxWidth, int maxHeight, String formatName) throws IOException {
+        BufferedImage resized;
+        try (ImageInputStream imageInputStream = open(source)) {
+            ImageReader reader = reader(imageInputStream, source);
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                double scale = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+                if (scale == 1.0) {
+                    try (InputStream inputStream = source.getInputStream()) {
+                        inputStream.transferTo(target);
+                    }
+                    return;
+                }
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (subsampling) {
+                    // Keep at least twice the target size so the filtered steps below still have pixels to average.
+                    int factor = Math.max(1, Math.min(width / targetWidth, height / targetHeight) / 2);
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                }
+                resized = downscale(read(reader, param, source), targetWidth, targetHeight, formatName);
+            } finally {
+                reader.dispose();
+            }
+        }
+        write(resized, target, formatName);
+    }
+
+    @Override
+    public void fill(InputStreamSource source, OutputStream target, int width, int height, String formatName) throws IOException {
+        BufferedImage filled;
+        try (ImageInputStream imageInputStream = open(source)) {
+            ImageReader reader = reader(imageInputStream, source);
+            try {
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                double scale = Math.max((double) width / sourceWidth, (double) height / sourceHeight);
+                // only the centre region with the aspect ratio of the target is decoded
+                int regionWidth = Math.min(sourceWidth, Math.max(1, (int) Math.round(width / scale)));
+                int regionHeight = Math.min(sourceHeight, Math.max(1, (int) Math.round(height / scale)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle((sourceWidth - regionWidth) / 2, (sourceHeight - regionHeight) / 2, regionWidth, regionHeight));
+                if (subsampling) {
+                    int factor = Math.max(1, Math.min(regionWidth / width, regionHeight / height) / 2);
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                }
+                filled = downscale(read(reader, param, source), width, height, formatName);
+            } finally {
+                reader.dispose();
+            }
+        }
+        write(filled, target, formatName);
+    }
+
+    // ImageIO.createImageInputStream would cache a stream in a temp file, so a stream is cached in memory explicitly.
+    private static ImageInputStream open(InputStreamSource source) throws IOException {
+        if (source instanceof Resource && ((Resource) source).isFile()) {
+            return new FileImageInputStream(((Resource) source).getFile());
+        }
+        InputStream inputStream = source.getInputStream();
+        return new MemoryCacheImageInputStream(inputStream) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inputStream.close();
+                }
+            }
+        };
+    }
+
+    private ImageReader reader(ImageInputStream imageInputStream, InputStreamSource source) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+        if (!readers.hasNext()) {
+            throw new IOException("No image reader found for " + source);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(imageInputStream, true, true);
+        reader.addIIOReadProgressListener(AbortOnInterrupt.INSTANCE);
+        return reader;
+    }
+
+    // ImageIO does not react to interrupts, a timed out conversion is stopped through abort() from the progress callbacks
+    private BufferedImage read(ImageReader reader, ImageReadParam param, InputStreamSource source) throws IOException {
+        BufferedImage image = reader.read(0, param);
+        checkInterrupted("Reading " + source + " was interrupted.");
+        return image;
+    }
+
+    private static void checkInterrupted(String message) throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException(message);
+        }
+    }
+
+    private BufferedImage downscale(BufferedImage image, int targetWidth, int targetHeight, String formatName) throws InterruptedIOException {
+        int type = FORMAT_JPEG.equals(formatName) || !image.getColorModel().hasAlpha()
+                ? BufferedImage.TYPE_INT_RGB
+                : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(width / 2, targetWidth);
+            height = Math.max(height / 2, targetHeight);
+            checkInterrupted("Scaling the image was interrupted.");
+            current = scale(current, width, height, type);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private BufferedImage scale(BufferedImage source, int width, int height, int type) {
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private void write(BufferedImage image, OutputStream target, String formatName) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer found for format " + formatName);
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(target)) {
+            writer.setOutput(imageOutputStream);
+            writer.addIIOWriteProgressListener(AbortOnInterrupt.INSTANCE);
+            writer.write(new IIOImage(image, null, null));
+            checkInterrupted("Writing the image was interrupted.");
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static class AbortOnInterrupt implements IIOReadProgressListener, IIOWriteProgressListener {
+        private static final AbortOnInterrupt INSTANCE = new AbortOnInterrupt();
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (Thread.currentThread().isInterrupted()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            if (Thread.currentThread().isInterrupted()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageWriter source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void writeAborted(ImageWriter source) {
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.domain.Image;
+import com.example.imageproject.domain.ImageContent;
+import com.example.imageproject.dto.StoredContent;
+import com.example.imageproject.repository.BlobStore;
+import com.example.imageproject.repository.ImageContentRepository;
+import com.example.imageproject.repository.ImageRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "image.storage.migrate-legacy", havingValue = "true", matchIfMissing = true)
+public class LegacyImageMigrationService {
+
+    private final ImageRepository imageRepository;
+    private final ImageContentRepository imageContentRepository;
+    private final BlobStore blobStore;
+    private final ImageStorageService imageStorageService;
+    private final ImageContentService imageContentService;
+    private final ImageDimensionProbe imageDimensionProbe;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    @Autowired
+    public LegacyImageMigrationService(ImageRepository imageRepository, ImageContentRepository imageContentRepository, BlobStore blobStore,
+                                       ImageStorageService imageStorageService, ImageContentService imageContentService,
+                                       ImageDimensionProbe imageDimensionProbe, JdbcTemplate jdbcTemplate,
+                                       PlatformTransactionManager transactionManager,
+                                       @Value("${image.storage.migration-batch-size:20}") int batchSize) {
+        this.imageRepository = imageRepository;
+        this.imageContentRepository = imageContentRepository;
+        this.blobStore = blobStore;
+        this.imageStorageService = imageStorageService;
+        this.imageContentService = imageContentService;
+        this.imageDimensionProbe = imageDimensionProbe;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+
+    @Scheduled(initialDelay = 30000, fixedDelayString = "${image.storage.migration-delay-ms:300000}")
+    public void migrateLegacyImages() {
+        long lastImageId = migrateInBatches(this::migrateImageBatch);
+        long lastContentId = migrateInBatches(this::migrateContentBatch);
+        long lastChecksumId = migrateInBatches(this::checksumContentBatch);
+        if (lastImageId > 0 || lastContentId > 0 || lastChecksumId > 0) {
+            log.info("Migrated legacy images up to image " + lastImageId + ", content up to " + lastContentId
+                    + " and checksums up to " + lastChecksumId);
+        }
+    }
+
+    private long migrateInBatches(LongFunction<Long> batch) {
+        long lastId = 0;
+        Long batchLastId;
+        while ((batchLastId = batch.apply(lastId)) != null) {
+            lastId = batchLastId;
+        }
+        return lastId;
+    }
+
+    // Every row runs in its own transaction: a failing row is logged and rolled back on its own, the cursor moves past
+    // it and the next run retries it. A blob it had already written is left to the orphan scan.
+    private void migrateRow(Long id, RowMigration migration, String failure) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try {
+                    migration.migrate(id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn(failure, e);
+        }
+    }
+
+    private Long migrateImageBatch(long afterId) {
+        List<Long> imageIds = imageRepository.findLegacyImageIds(afterId, PageRequest.of(0, batchSize));
+        if (imageIds.isEmpty()) {
+            return null;
+        }
+        for (Long imageId : imageIds) {
+            migrateRow(imageId, this::migrateImageById, "Moving image " + imageId + " into the content store failed: ");
+        }
+        return imageIds.get(imageIds.size() - 1);
+    }
+
+    private void migrateImageById(Long imageId) throws IOException {
+        Image image = imageRepository.findById(imageId).orElse(null);
+        if (image == null || image.getContent() != null || image.getCustomUser() == null
+                || (image.getData() == null && image.getBlobKey() == null)) {
+            return;
+        }
+        migrateImage(image);
+    }
+
+    private void migrateImage(Image image) throws IOException {
+        byte[] plainData = imageStorageService.readDecrypted(image);
+        Long customUserId = image.getCustomUser().getCustomUserId();
+        ImageContent content = imageContentService.findDuplicate(customUserId, () -> new ByteArrayInputStream(plainData));
+        if (content != null) {
+            content = imageContentService.addReference(customUserId, content);
+        } else {
+            StoredContent storedContent = imageStorageService.store(new ByteArrayInputStream(plainData), plainData.length);
+            content = imageContentService.addReference(customUserId, storedContent, probeFormatName(image, plainData));
+            imageContentService.discardDuplicate(storedContent, content);
+        }
+        image.setContent(imageContentService.getReference(content.getId()));
+        image.setBlobKey(content.getBlobKey());
+        image.setFormatName(content.getFormatName());
+        image.setEncryption(content.getEncryption());
+        if (image.getData() != null) {
+            jdbcTemplate.query("SELECT lo_unlink(data) FROM images WHERE id = ? AND data IS NOT NULL",
+                    resultSet -> null, image.getId());
+            image.setData(null);
+        }
+    }
+
+    private Long migrateContentBatch(long afterId) {
+        List<ImageContent> contents = imageContentRepository.findNotEncryptedWith(ImageStorageService.ENCRYPTION, afterId, PageRequest.of(0, batchSize));
+        if (contents.isEmpty()) {
+            return null;
+        }
+        for (ImageContent content : contents) {
+            migrateRow(content.getId(), this::reencrypt, "Re-encrypting image content " + content.getId() + " failed: ");
+        }
+        return contents.get(contents.size() - 1).getId();
+    }
+
+    private void reencrypt(Long contentId) throws IOException {
+        ImageContent content = imageContentRepository.findById(contentId).orElse(null);
+        if (content == null || content.getEncryption() == ImageStorageService.ENCRYPTION) {
+            return;
+        }
+        Image legacyImage = Image.builder()
+                .blobKey(content.getBlobKey())
+                .encryption(content.getEncryption())
+                .build();
+        StoredContent storedContent = imageStorageService.store(outputStream -> imageStorageService.writeDecrypted(legacyImage, outputStream));
+        content.setBlobKey(storedContent.getBlobKey());
+        content.setEncryption(ImageStorageService.ENCRYPTION);
+        content.setStoredSize(blobStore.size(storedContent.getBlobKey()));
+        content.setPlainSize(storedContent.getPlainSize());
+        content.setCrc32(storedContent.getCrc32());
+        imageRepository.updateBlob(content, storedContent.getBlobKey(), ImageStorageService.ENCRYPTION);
+    }
+
+    private Long checksumContentBatch(long afterId) {
+        List<ImageContent> contents = imageContentRepository.findByCrc32IsNullAndIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, batchSize));
+        if (contents.isEmpty()) {
+            return null;
+        }
+        for (ImageContent content : contents) {
+            migrateRow(content.getId(), this::checksum, "Checksumming image content " + content.getId() + " failed: ");
+        }
+        return contents.get(contents.size() - 1).getId();
+    }
+
+    private void checksum(Long contentId) throws IOException {
+        ImageContent content = imageContentRepository.findById(contentId).orElse(null);
+        if (content == null || content.getCrc32() != null) {
+            return;
+        }
+        Image image = Image.builder()
+                .blobKey(content.getBlobKey())
+                .encryption(content.getEncryption())
+                .build();
+        CRC32 crc32 = new CRC32();
+        long[] count = new long[1];
+        // one decryption gives both the checksum and the plain size
+        imageStorageService.writeDecrypted(image, new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                crc32.update(bytes, offset, length);
+                count[0] += length;
+            }
+        });
+        content.setPlainSize(count[0]);
+        content.setCrc32(crc32.getValue());
+    }
+
+    private String probeFormatName(Image image, byte[] plainData) {
+        if (image.getFormatName() != null) {
+            return image.getFormatName();
+        }
+        try {
+            return imageDimensionProbe.probe(new ByteArrayInputStream(plainData)).getFormatName();
+        } catch (IOException e) {
+            log.warn("Format of legacy image " + image.getId() + " could not be detected: ", e);
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowMigration {
+        void migrate(Long id) throws IOException;
+    }
+}
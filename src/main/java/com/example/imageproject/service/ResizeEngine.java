@@ -0,0 +1,16 @@
+package com.example.imageproject.service;
+
+import org.springframework.core.io.InputStreamSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// A source that is a file Resource is read in place; any other source (a decrypting stream) is only ever read
+// as a stream, so plain image content is not written to disk on its way to the engine.
+public interface ResizeEngine {
+
+    void resize(InputStreamSource source, OutputStream target, int maxWidth, int maxHeight, String formatName) throws IOException;
+
+    // scales the image to cover width x height and crops the centre, so the result is exactly width x height
+    void fill(InputStreamSource source, OutputStream target, int width, int height, String formatName) throws IOException;
+}
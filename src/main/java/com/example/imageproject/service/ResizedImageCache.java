@@ -0,0 +1,289 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.config.SegmentedEncryption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Service
+@Slf4j
+public class ResizedImageCache {
+
+    private static final String VARIANT_SUFFIX = ".variant";
+
+    private final SegmentedEncryption segmentedEncryption;
+    private final Path root;
+    private final Path tempDirectory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedVariant> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<CachedVariant>> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> invalidatedInFlight = new HashSet<>();
+    private long totalBytes;
+
+    @Autowired
+    public ResizedImageCache(SegmentedEncryption segmentedEncryption,
+                             @Value("${image.resize-cache.root:image-resize-cache}") String root,
+                             @Value("${image.resize-cache.max-bytes:1073741824}") long maxBytes) throws IOException {
+        this.segmentedEncryption = segmentedEncryption;
+        this.root = Path.of(root).toAbsolutePath().normalize();
+        this.tempDirectory = this.root.resolve("tmp");
+        this.maxBytes = maxBytes;
+        Files.createDirectories(tempDirectory);
+        loadEntries();
+    }
+
+
+    public CompletableFuture<CachedVariant> get(String key, Supplier<CompletableFuture<byte[]>> generator) {
+        CachedVariant cachedVariant = find(key);
+        if (cachedVariant != null) {
+            return CompletableFuture.completedFuture(cachedVariant);
+        }
+        CompletableFuture<CachedVariant> created = new CompletableFuture<>();
+        CompletableFuture<CachedVariant> running = inFlight.putIfAbsent(key, created);
+        if (running != null) {
+            return running;
+        }
+        cachedVariant = startGeneration(key);
+        if (cachedVariant != null) {
+            inFlight.remove(key, created);
+            created.complete(cachedVariant);
+            return created;
+        }
+        CompletableFuture<byte[]> generated;
+        try {
+            generated = generator.get();
+        } catch (RuntimeException e) {
+            generated = CompletableFuture.failedFuture(e);
+        }
+        generated.thenApply(data -> store(key, data))
+                .whenComplete((variant, e) -> {
+                    inFlight.remove(key, created);
+                    if (e != null) {
+                        created.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    } else {
+                        created.complete(variant);
+                    }
+                });
+        return created;
+    }
+
+    private synchronized CachedVariant find(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized CachedVariant startGeneration(String key) {
+        invalidatedInFlight.remove(key);
+        return entries.get(key);
+    }
+
+    // keys are "u<customUserId>-<c<contentId>|i<imageId>>-<variant>"
+    public static String key(Long customUserId, Long contentId, Long imageId, String variant) {
+        return "u" + customUserId + "-" + (contentId != null ? "c" + contentId : "i" + imageId) + "-" + variant;
+    }
+
+    public void invalidateUser(Long customUserId) {
+        afterCommit(() -> invalidate(0, "u" + customUserId));
+    }
+
+    public void invalidateContent(Long contentId) {
+        afterCommit(() -> invalidate(1, "c" + contentId));
+    }
+
+    public void invalidateImage(Long imageId) {
+        afterCommit(() -> invalidate(1, "i" + imageId));
+    }
+
+    private static void afterCommit(Runnable invalidation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidation.run();
+            return;
+        }
+        // a read between the delete and the commit could otherwise cache the deleted image again
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidation.run();
+            }
+        });
+    }
+
+    private synchronized void invalidate(int part, String value) {
+        Iterator<Map.Entry<String, CachedVariant>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CachedVariant> entry = iterator.next();
+            if (matches(entry.getKey(), part, value)) {
+                iterator.remove();
+                retire(entry.getValue());
+            }
+        }
+        for (String key : inFlight.keySet()) {
+            if (matches(key, part, value)) {
+                invalidatedInFlight.add(key);
+            }
+        }
+    }
+
+    private static boolean matches(String key, int part, String value) {
+        String[] parts = key.split("-", 3);
+        return parts.length == 3 && parts[part].equals(value);
+    }
+
+    private CachedVariant store(String key, byte[] data) {
+        // every stored variant gets its own file, so a file that is still being read is never replaced
+        Path target = root.resolve(key + "." + UUID.randomUUID() + VARIANT_SUFFIX);
+        try {
+            Path tempFile = Files.createTempFile(tempDirectory, "variant", ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(tempFile, StandardOpenOption.WRITE)) {
+                    segmentedEncryption.encrypt(new ByteArrayInputStream(data), outputStream, data.length);
+                }
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            CachedVariant cachedVariant = new CachedVariant(target, data.length, Files.size(target));
+            put(key, cachedVariant);
+            return cachedVariant;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized void put(String key, CachedVariant cachedVariant) {
+        if (invalidatedInFlight.remove(key)) {
+            // generated from an image that was deleted meanwhile, the waiting requests see a retired variant
+            cachedVariant.retired = true;
+            delete(cachedVariant.path);
+            return;
+        }
+        retire(entries.put(key, cachedVariant));
+        totalBytes += cachedVariant.storedSize;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<CachedVariant> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            CachedVariant eldest = iterator.next();
+            iterator.remove();
+            retire(eldest);
+        }
+    }
+
+    private void retire(CachedVariant cachedVariant) {
+        if (cachedVariant == null) {
+            return;
+        }
+        totalBytes -= cachedVariant.storedSize;
+        cachedVariant.retired = true;
+        if (cachedVariant.readers == 0) {
+            delete(cachedVariant.path);
+        }
+    }
+
+    private synchronized boolean acquire(CachedVariant cachedVariant) {
+        if (cachedVariant.retired) {
+            return false;
+        }
+        cachedVariant.readers++;
+        return true;
+    }
+
+    private synchronized void release(CachedVariant cachedVariant) {
+        if (--cachedVariant.readers == 0 && cachedVariant.retired) {
+            delete(cachedVariant.path);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete resized image " + path, e);
+        }
+    }
+
+    private synchronized void loadEntries() throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(root)) {
+            files = paths.filter(Files::isRegularFile)
+                    .sorted(Comparator.comparing(path -> path.toFile().lastModified()))
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (!name.endsWith(VARIANT_SUFFIX) || !name.startsWith("u") || name.substring(0, name.indexOf('.')).split("-", 3).length != 3) {
+                Files.deleteIfExists(file);
+                continue;
+            }
+            try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+                CachedVariant cachedVariant = new CachedVariant(file, segmentedEncryption.plainSize(channel), channel.size());
+                retire(entries.put(name.substring(0, name.indexOf('.')), cachedVariant));
+                totalBytes += cachedVariant.storedSize;
+            } catch (IOException e) {
+                log.warn("Dropping unreadable resized image " + file, e);
+                Files.deleteIfExists(file);
+            }
+        }
+        evict();
+    }
+
+
+    public class CachedVariant {
+        private final Path path;
+        private final long plainSize;
+        private final long storedSize;
+        private int readers;
+        private boolean retired;
+
+        private CachedVariant(Path path, long plainSize, long storedSize) {
+            this.path = path;
+            this.plainSize = plainSize;
+            this.storedSize = storedSize;
+        }
+
+        public long getPlainSize() {
+            return plainSize;
+        }
+
+        // false when the variant was evicted before the read started; an eviction during the read waits for release
+        public boolean writeTo(long offset, long length, OutputStream outputStream) throws IOException {
+            if (!acquire(this)) {
+                return false;
+            }
+            try (SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+                segmentedEncryption.decryptRange(channel, offset, length, outputStream);
+            } finally {
+                release(this);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.dto.ImageDownload;
+import com.example.imageproject.repository.BlobStore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Minimal ZIP writer for archives whose entry sizes and checksums are known up front: entries are written without
+ * data descriptors, STORED data is streamed straight through and DEFLATED data is expected to be compressed already,
+ * so entries can be compressed elsewhere and assembled in order. ZIP64 records are added when sizes, offsets or the
+ * entry count need them.
+ * <p>
+ * The layout only depends on the entries, so a writer can be limited to a byte range of the archive: everything
+ * outside the range is counted but not written, which also makes a writer with an empty range measure the archive.
+ */
+class ZipArchiveWriter {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int ZIP64_LOCAL_EXTRA_LENGTH = 20;
+    private static final short VERSION = 20;
+    private static final short ZIP64_VERSION = 45;
+    private static final short UTF8_NAMES = 0x0800;
+
+    private final OutputStream outputStream;
+    private final long rangeStart;
+    private final long rangeEnd;
+    private final List<CentralEntry> entries = new ArrayList<>();
+    private long written;
+
+    ZipArchiveWriter(OutputStream outputStream) {
+        this(outputStream, 0, Long.MAX_VALUE);
+    }
+
+    ZipArchiveWriter(OutputStream outputStream, long offset, long length) {
+        this.outputStream = outputStream;
+        this.rangeStart = offset;
+        this.rangeEnd = length > Long.MAX_VALUE - offset ? Long.MAX_VALUE : offset + length;
+    }
+
+
+    void writeEntry(String name, LocalDateTime modified, int method, long size, long compressedSize, long crc32,
+                    BlobStore.ContentWriter data) throws IOException {
+        CentralEntry entry = writeLocalHeader(name, modified, method, size, compressedSize, crc32);
+        EntryOutputStream entryOutputStream = new EntryOutputStream(method == STORED);
+        data.writeTo(entryOutputStream);
+        if (entryOutputStream.count != compressedSize || (method == STORED && entryOutputStream.crc32.getValue() != crc32)) {
+            throw new IOException("Archive entry " + name + " does not match its recorded size or checksum.");
+        }
+        entries.add(entry);
+    }
+
+    void writeStoredEntry(String name, LocalDateTime modified, long size, long crc32, ImageDownload.RangeWriter data) throws IOException {
+        CentralEntry entry = writeLocalHeader(name, modified, STORED, size, size, crc32);
+        long from = Math.max(rangeStart, written);
+        long to = Math.min(rangeEnd, written + size);
+        if (from < to) {
+            data.writeTo(from - written, to - from, outputStream);
+        }
+        written += size;
+        entries.add(entry);
+    }
+
+    long length() {
+        return written;
+    }
+
+    private CentralEntry writeLocalHeader(String name, LocalDateTime modified, int method, long size, long compressedSize,
+                                          long crc32) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64 = size >= ZIP64_LIMIT || compressedSize >= ZIP64_LIMIT;
+        CentralEntry entry = new CentralEntry(nameBytes, method, dosTime(modified), crc32, size, compressedSize, written);
+        ByteBuffer header = buffer(LOCAL_HEADER_LENGTH + nameBytes.length + (zip64 ? ZIP64_LOCAL_EXTRA_LENGTH : 0))
+                .putInt(0x04034b50)
+                .putShort(zip64 ? ZIP64_VERSION : VERSION)
+                .putShort(UTF8_NAMES)
+                .putShort((short) method)
+                .putInt(entry.dosTime)
+                .putInt((int) crc32)
+                .putInt(zip64 ? -1 : (int) compressedSize)
+                .putInt(zip64 ? -1 : (int) size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) (zip64 ? ZIP64_LOCAL_EXTRA_LENGTH : 0))
+                .put(nameBytes);
+        if (zip64) {
+            header.putShort((short) 1).putShort((short) 16).putLong(size).putLong(compressedSize);
+        }
+        write(header);
+        return entry;
+    }
+
+    void finish() throws IOException {
+        long centralDirectoryOffset = written;
+        for (CentralEntry entry : entries) {
+            writeCentralEntry(entry);
+        }
+        long centralDirectorySize = written - centralDirectoryOffset;
+        if (entries.size() >= ZIP64_ENTRY_LIMIT || centralDirectoryOffset >= ZIP64_LIMIT || centralDirectorySize >= ZIP64_LIMIT) {
+            long zip64EndOffset = written;
+            write(buffer(56)
+                    .putInt(0x06064b50)
+                    .putLong(44)
+                    .putShort(ZIP64_VERSION)
+                    .putShort(ZIP64_VERSION)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(entries.size())
+                    .putLong(entries.size())
+                    .putLong(centralDirectorySize)
+                    .putLong(centralDirectoryOffset));
+            write(buffer(20)
+                    .putInt(0x07064b50)
+                    .putInt(0)
+                    .putLong(zip64EndOffset)
+                    .putInt(1));
+        }
+        short entryCount = (short) Math.min(entries.size(), ZIP64_ENTRY_LIMIT);
+        write(buffer(22)
+                .putInt(0x06054b50)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort(entryCount)
+                .putShort(entryCount)
+                .putInt((int) Math.min(centralDirectorySize, ZIP64_LIMIT))
+                .putInt((int) Math.min(centralDirectoryOffset, ZIP64_LIMIT))
+                .putShort((short) 0));
+        outputStream.flush();
+    }
+
+    private void writeCentralEntry(CentralEntry entry) throws IOException {
+        boolean zip64Size = entry.size >= ZIP64_LIMIT;
+        boolean zip64CompressedSize = entry.compressedSize >= ZIP64_LIMIT;
+        boolean zip64Offset = entry.offset >= ZIP64_LIMIT;
+        int extraLength = (zip64Size || zip64CompressedSize || zip64Offset ? 4 : 0)
+                + (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+        ByteBuffer header = buffer(CENTRAL_HEADER_LENGTH + entry.name.length + extraLength)
+                .putInt(0x02014b50)
+                .putShort(ZIP64_VERSION)
+                .putShort(zip64 ? ZIP64_VERSION : VERSION)
+                .putShort(UTF8_NAMES)
+                .putShort((short) entry.method)
+                .putInt(entry.dosTime)
+                .putInt((int) entry.crc32)
+                .putInt(zip64CompressedSize ? -1 : (int) entry.compressedSize)
+                .putInt(zip64Size ? -1 : (int) entry.size)
+                .putShort((short) entry.name.length)
+                .putShort((short) extraLength)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt(zip64Offset ? -1 : (int) entry.offset)
+                .put(entry.name);
+        if (zip64) {
+            header.putShort((short) 1).putShort((short) (extraLength - 4));
+            if (zip64Size) {
+                header.putLong(entry.size);
+            }
+            if (zip64CompressedSize) {
+                header.putLong(entry.compressedSize);
+            }
+            if (zip64Offset) {
+                header.putLong(entry.offset);
+            }
+        }
+        write(header);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        write(buffer.array(), 0, buffer.position());
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        long from = Math.max(rangeStart, written);
+        long to = Math.min(rangeEnd, written + length);
+        if (from < to) {
+            outputStream.write(bytes, offset + (int) (from - written), (int) (to - from));
+        }
+        written += length;
+    }
+
+    private static ByteBuffer buffer(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int dosTime(LocalDateTime modified) {
+        if (modified == null || modified.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (modified.getYear() - 1980) << 25
+                | modified.getMonthValue() << 21
+                | modified.getDayOfMonth() << 16
+                | modified.getHour() << 11
+                | modified.getMinute() << 5
+                | modified.getSecond() >> 1;
+    }
+
+
+    private static class CentralEntry {
+        private final byte[] name;
+        private final int method;
+        private final int dosTime;
+        private final long crc32;
+        private final long size;
+        private final long compressedSize;
+        private final long offset;
+
+        private CentralEntry(byte[] name, int method, int dosTime, long crc32, long size, long compressedSize, long offset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc32 = crc32;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+        }
+    }
+
+    private class EntryOutputStream extends OutputStream {
+        private final boolean checksum;
+        private final CRC32 crc32 = new CRC32();
+        private long count;
+
+        private EntryOutputStream(boolean checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ZipArchiveWriter.this.write(bytes, offset, length);
+            count += length;
+            if (checksum) {
+                crc32.update(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+    }
+}
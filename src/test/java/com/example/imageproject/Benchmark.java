@@ -0,0 +1,70 @@
+package com.example.imageproject;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+
+// Time-boxed loop for the @Tag("benchmark") tests, run with: mvn -B test -Pbenchmark
+public final class Benchmark {
+
+    private static final long WARM_UP_NANOS = Long.getLong("benchmark.warm-up-ms", 2000) * 1_000_000;
+    private static final long MEASURE_NANOS = Long.getLong("benchmark.measure-ms", 3000) * 1_000_000;
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile Object sink;
+
+    private Benchmark() {
+    }
+
+    public static Result run(Callable<?> operation) throws Exception {
+        loop(operation, WARM_UP_NANOS);
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long operations = loop(operation, MEASURE_NANOS);
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        return new Result(operations, elapsed, allocated);
+    }
+
+    private static long loop(Callable<?> operation, long nanos) throws Exception {
+        long end = System.nanoTime() + nanos;
+        long operations = 0;
+        do {
+            sink = operation.call();
+            operations++;
+        } while (System.nanoTime() < end);
+        return operations;
+    }
+
+    public static void print(String format, Object... arguments) {
+        System.out.printf(format + "%n", arguments);
+    }
+
+    public static class Result {
+        private final long operations;
+        private final long elapsedNanos;
+        private final long allocatedBytes;
+
+        private Result(long operations, long elapsedNanos, long allocatedBytes) {
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public double opsPerSecond() {
+            return operations * 1e9 / elapsedNanos;
+        }
+
+        public double millisPerOp() {
+            return elapsedNanos / 1e6 / operations;
+        }
+
+        public double megabytesPerSecond(long bytesPerOp) {
+            return bytesPerOp * opsPerSecond() / (1024 * 1024);
+        }
+
+        // allocation of the calling thread only, work done on pool threads is not included
+        public long allocatedBytesPerOp() {
+            return allocatedBytes / operations;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.imageproject.config;
+
+import com.example.imageproject.Benchmark;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Cached per-thread ciphers against a Cipher.getInstance + init per call, which is what AESEncryption did before.
+@Tag("benchmark")
+class AESEncryptionBenchmarkTest {
+
+    private static final SecretKeySpec KEY = new SecretKeySpec("1234567890123456".getBytes(StandardCharsets.UTF_8), "AES");
+
+    @Test
+    void cachedCipherAgainstFreshCipher() throws Exception {
+        AESEncryption aesEncryption = new AESEncryption();
+        // an unreported run first, otherwise the first row is measured while the JIT is still compiling the cipher code
+        byte[] warmUp = new byte[1024];
+        Benchmark.run(() -> freshCipher(Cipher.ENCRYPT_MODE, warmUp));
+        Benchmark.run(() -> aesEncryption.encrypt(warmUp));
+        Benchmark.print("%-8s %-8s %16s %16s", "payload", "op", "fresh (ops/s)", "cached (ops/s)");
+        for (int size : new int[]{1024, 1024 * 1024, 50 * 1024 * 1024}) {
+            byte[] plain = new byte[size];
+            new Random(size).nextBytes(plain);
+            byte[] encrypted = aesEncryption.encrypt(plain);
+            assertThat(freshCipher(Cipher.ENCRYPT_MODE, plain)).isEqualTo(encrypted);
+
+            Benchmark.Result freshEncrypt = Benchmark.run(() -> freshCipher(Cipher.ENCRYPT_MODE, plain));
+            Benchmark.Result cachedEncrypt = Benchmark.run(() -> aesEncryption.encrypt(plain));
+            Benchmark.Result freshDecrypt = Benchmark.run(() -> freshCipher(Cipher.DECRYPT_MODE, encrypted));
+            Benchmark.Result cachedDecrypt = Benchmark.run(() -> aesEncryption.decrypt(encrypted));
+            Benchmark.print("%-8s %-8s %16.1f %16.1f", label(size), "encrypt", freshEncrypt.opsPerSecond(), cachedEncrypt.opsPerSecond());
+            Benchmark.print("%-8s %-8s %16.1f %16.1f", label(size), "decrypt", freshDecrypt.opsPerSecond(), cachedDecrypt.opsPerSecond());
+        }
+    }
+
+    private static byte[] freshCipher(int mode, byte[] data) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
+        cipher.init(mode, KEY);
+        return cipher.doFinal(data);
+    }
+
+    private static String label(int size) {
+        return size >= 1024 * 1024 ? size / (1024 * 1024) + " MB" : size / 1024 + " KB";
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.imageproject.config;
+
+import com.example.imageproject.Benchmark;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+import java.util.TreeSet;
+
+// Throughput of the segmented format for parallelism 1, 2, 4 ... up to the number of cores (and always 4).
+// Scaling only shows on a machine with that many cores; on fewer cores the extra threads only add scheduling cost.
+@Tag("benchmark")
+class SegmentedEncryptionBenchmarkTest {
+
+    private static final int PAYLOAD_SIZE = Integer.getInteger("benchmark.segmented.payload-mb", 100) * 1024 * 1024;
+    private static final int SEGMENT_SIZE = 65536;
+
+    @Test
+    void throughputByParallelism() throws Exception {
+        byte[] plain = new byte[PAYLOAD_SIZE];
+        new Random(1).nextBytes(plain);
+        String masterKey = Base64.getEncoder().encodeToString(new byte[32]);
+        int cores = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> parallelisms = new TreeSet<>();
+        for (int parallelism = 1; parallelism <= cores; parallelism *= 2) {
+            parallelisms.add(parallelism);
+        }
+        parallelisms.add(cores);
+        parallelisms.add(4);
+
+        Path encryptedFile = Files.createTempFile("segmented-benchmark", ".bin");
+        try {
+            // an unreported pass first, otherwise whichever parallelism runs first is measured against a cold JIT
+            for (int parallelism : parallelisms) {
+                measure(plain, masterKey, parallelism, encryptedFile);
+            }
+            Benchmark.print("%d MB payload, %d KiB segments, %d available processors", PAYLOAD_SIZE >> 20, SEGMENT_SIZE >> 10, cores);
+            Benchmark.print("%-12s %18s %18s", "parallelism", "encrypt (MB/s)", "decrypt (MB/s)");
+            for (int parallelism : parallelisms) {
+                double[] throughput = measure(plain, masterKey, parallelism, encryptedFile);
+                Benchmark.print("%-12d %18.0f %18.0f", parallelism, throughput[0], throughput[1]);
+            }
+        } finally {
+            Files.deleteIfExists(encryptedFile);
+        }
+    }
+
+    private static double[] measure(byte[] plain, String masterKey, int parallelism, Path encryptedFile) throws Exception {
+        // parallelism 1 is the sequential path on the calling thread
+        SegmentedEncryption segmentedEncryption = new SegmentedEncryption(masterKey, SEGMENT_SIZE, parallelism,
+                parallelism == 1 ? Long.MAX_VALUE : 0);
+        try {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream(PAYLOAD_SIZE + PAYLOAD_SIZE / 256);
+            segmentedEncryption.encrypt(new ByteArrayInputStream(plain), encrypted, plain.length);
+            Files.write(encryptedFile, encrypted.toByteArray());
+
+            Benchmark.Result encrypt = Benchmark.run(() -> {
+                segmentedEncryption.encrypt(new ByteArrayInputStream(plain), OutputStream.nullOutputStream(), plain.length);
+                return null;
+            });
+            Benchmark.Result decrypt = Benchmark.run(() -> {
+                try (SeekableByteChannel channel = Files.newByteChannel(encryptedFile)) {
+                    segmentedEncryption.decrypt(channel, OutputStream.nullOutputStream());
+                }
+                return null;
+            });
+            return new double[]{encrypt.megabytesPerSecond(PAYLOAD_SIZE), decrypt.megabytesPerSecond(PAYLOAD_SIZE)};
+        } finally {
+            segmentedEncryption.shutdown();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.imageproject.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentedEncryptionTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int FULL_SEGMENT_SIZE = SEGMENT_SIZE + 16;
+    private static final String MASTER_KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    @TempDir
+    Path tempDir;
+
+    private final SegmentedEncryption sequential = new SegmentedEncryption(MASTER_KEY, SEGMENT_SIZE, 1, Long.MAX_VALUE);
+    private final SegmentedEncryption parallel = new SegmentedEncryption(MASTER_KEY, SEGMENT_SIZE, 3, 1);
+
+    SegmentedEncryptionTest() throws Exception {
+    }
+
+    @AfterEach
+    void shutdown() {
+        sequential.shutdown();
+        parallel.shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 2 * SEGMENT_SIZE, 5 * SEGMENT_SIZE + 17})
+    void roundTrip(int size) throws Exception {
+        byte[] plain = randomBytes(size);
+        byte[] encrypted = encrypt(sequential, plain);
+
+        int segments = Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        assertThat(encrypted).hasSize(SegmentedEncryption.HEADER_LENGTH + size + segments * 16);
+        assertThat(decryptStream(sequential, encrypted)).isEqualTo(plain);
+        assertThat(decryptChannel(sequential, encrypted)).isEqualTo(plain);
+        try (SeekableByteChannel channel = channel(encrypted)) {
+            assertThat(sequential.plainSize(channel)).isEqualTo(size);
+        }
+    }
+
+    @Test
+    void lastSegmentFlagDetectsDroppedSegment() throws Exception {
+        byte[] encrypted = encrypt(sequential, randomBytes(3 * SEGMENT_SIZE));
+
+        // a blob cut at a segment boundary ends with a segment that was not sealed as the last one
+        byte[] truncated = Arrays.copyOf(encrypted, encrypted.length - FULL_SEGMENT_SIZE);
+
+        assertThatThrownBy(() -> decryptStream(sequential, truncated)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> decryptChannel(sequential, truncated)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void flippedCiphertextByteFails() throws Exception {
+        byte[] encrypted = encrypt(sequential, randomBytes(2 * SEGMENT_SIZE + 100));
+        encrypted[SegmentedEncryption.HEADER_LENGTH + FULL_SEGMENT_SIZE + 10] ^= 1;
+
+        assertThatThrownBy(() -> decryptStream(sequential, encrypted)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> decryptChannel(sequential, encrypted)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void flippedHeaderByteFails() throws Exception {
+        byte[] encrypted = encrypt(sequential, randomBytes(100));
+        encrypted[10] ^= 1;
+
+        assertThatThrownBy(() -> decryptStream(sequential, encrypted)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void swappedSegmentsFail() throws Exception {
+        byte[] encrypted = encrypt(sequential, randomBytes(3 * SEGMENT_SIZE));
+        int first = SegmentedEncryption.HEADER_LENGTH;
+        int second = first + FULL_SEGMENT_SIZE;
+        byte[] firstSegment = Arrays.copyOfRange(encrypted, first, second);
+        System.arraycopy(encrypted, second, encrypted, first, FULL_SEGMENT_SIZE);
+        System.arraycopy(firstSegment, 0, encrypted, second, FULL_SEGMENT_SIZE);
+
+        assertThatThrownBy(() -> decryptStream(sequential, encrypted)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> decryptChannel(sequential, encrypted)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void segmentFromAnotherBlobFails() throws Exception {
+        byte[] plain = randomBytes(2 * SEGMENT_SIZE);
+        byte[] encrypted = encrypt(sequential, plain);
+        byte[] other = encrypt(sequential, plain);
+        System.arraycopy(other, SegmentedEncryption.HEADER_LENGTH, encrypted, SegmentedEncryption.HEADER_LENGTH, FULL_SEGMENT_SIZE);
+
+        assertThatThrownBy(() -> decryptStream(sequential, encrypted)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void truncatedFinalSegmentFails() throws Exception {
+        byte[] encrypted = encrypt(sequential, randomBytes(2 * SEGMENT_SIZE + 100));
+        byte[] truncated = Arrays.copyOf(encrypted, encrypted.length - 20);
+
+        assertThatThrownBy(() -> decryptStream(sequential, truncated)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> decryptChannel(sequential, truncated)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void truncatedHeaderFails() throws Exception {
+        byte[] encrypted = encrypt(sequential, randomBytes(100));
+        byte[] truncated = Arrays.copyOf(encrypted, SegmentedEncryption.HEADER_LENGTH - 1);
+
+        assertThatThrownBy(() -> decryptStream(sequential, truncated)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> decryptChannel(sequential, truncated)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void wrongMasterKeyFails() throws Exception {
+        byte[] encrypted = encrypt(sequential, randomBytes(100));
+        byte[] otherKey = new byte[32];
+        otherKey[0] = 1;
+        SegmentedEncryption other = new SegmentedEncryption(Base64.getEncoder().encodeToString(otherKey), SEGMENT_SIZE, 1, Long.MAX_VALUE);
+        try {
+            assertThatThrownBy(() -> decryptStream(other, encrypted)).isInstanceOf(IOException.class);
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    void missingOrShortMasterKeyIsRejected() {
+        assertThatThrownBy(() -> new SegmentedEncryption("", SEGMENT_SIZE, 1, Long.MAX_VALUE))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> new SegmentedEncryption("not base64!", SEGMENT_SIZE, 1, Long.MAX_VALUE))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> new SegmentedEncryption(Base64.getEncoder().encodeToString(new byte[16]), SEGMENT_SIZE, 1, Long.MAX_VALUE))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void decryptRangeAcrossSegmentBoundaries() throws Exception {
+        byte[] plain = randomBytes(6 * SEGMENT_SIZE + 333);
+        byte[] encrypted = encrypt(sequential, plain);
+        Random random = new Random(7);
+        long[][] ranges = {
+                {0, plain.length},
+                {0, 0},
+                {SEGMENT_SIZE - 1, 2},
+                {SEGMENT_SIZE, SEGMENT_SIZE},
+                {SEGMENT_SIZE - 10, 3 * SEGMENT_SIZE + 20},
+                {plain.length - 1, 1},
+                {5 * SEGMENT_SIZE, plain.length - 5 * SEGMENT_SIZE}
+        };
+        try (SeekableByteChannel channel = channel(encrypted)) {
+            for (long[] range : ranges) {
+                assertRange(channel, plain, range[0], range[1]);
+            }
+            for (int i = 0; i < 200; i++) {
+                long offset = random.nextInt(plain.length);
+                assertRange(channel, plain, offset, random.nextInt((int) (plain.length - offset) + 1));
+            }
+            assertThatThrownBy(() -> sequential.decryptRange(channel, plain.length - 1, 2, new ByteArrayOutputStream()))
+                    .isInstanceOf(IOException.class);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, SEGMENT_SIZE, 6 * SEGMENT_SIZE, 7 * SEGMENT_SIZE, 7 * SEGMENT_SIZE + 1, 20 * SEGMENT_SIZE + 5})
+    void parallelEncryptionMatchesSequential(int size) throws Exception {
+        byte[] plain = randomBytes(size);
+        byte[] parallelEncrypted = encrypt(parallel, plain, size);
+        byte[] sequentialEncrypted = encrypt(sequential, plain);
+
+        assertThat(parallelEncrypted).hasSameSizeAs(sequentialEncrypted);
+        // the sequential reader derives the nonce of segment i from i and the last flag, so it only accepts
+        // a blob whose segments were each sealed under their own index
+        assertThat(decryptStream(sequential, parallelEncrypted)).isEqualTo(plain);
+        assertThat(decryptChannel(sequential, parallelEncrypted)).isEqualTo(plain);
+        assertThat(decryptChannel(parallel, parallelEncrypted)).isEqualTo(plain);
+        assertThat(decryptChannel(parallel, sequentialEncrypted)).isEqualTo(plain);
+        try (SeekableByteChannel channel = channel(parallelEncrypted)) {
+            assertRange(channel, plain, size / 3, size - size / 3);
+        }
+    }
+
+    @Test
+    void everyBlobGetsItsOwnNoncePrefixAndDataKey() throws Exception {
+        byte[] plain = randomBytes(3 * SEGMENT_SIZE);
+        byte[] first = encrypt(parallel, plain, plain.length);
+        byte[] second = encrypt(parallel, plain, plain.length);
+
+        // magic, version and segment size are shared; the nonce prefix and the wrapped key are random per blob
+        assertThat(Arrays.copyOfRange(first, 9, 16)).isNotEqualTo(Arrays.copyOfRange(second, 9, 16));
+        assertThat(Arrays.copyOfRange(first, 16, SegmentedEncryption.HEADER_LENGTH))
+                .isNotEqualTo(Arrays.copyOfRange(second, 16, SegmentedEncryption.HEADER_LENGTH));
+        assertThat(Arrays.copyOfRange(first, SegmentedEncryption.HEADER_LENGTH, first.length))
+                .isNotEqualTo(Arrays.copyOfRange(second, SegmentedEncryption.HEADER_LENGTH, second.length));
+    }
+
+    private void assertRange(SeekableByteChannel channel, byte[] plain, long offset, long length) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        sequential.decryptRange(channel, offset, length, outputStream);
+        assertThat(outputStream.toByteArray())
+                .as("range %d+%d", offset, length)
+                .isEqualTo(Arrays.copyOfRange(plain, (int) offset, (int) (offset + length)));
+    }
+
+    private static byte[] encrypt(SegmentedEncryption encryption, byte[] plain) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encryption.encrypt(new ByteArrayInputStream(plain), outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] encrypt(SegmentedEncryption encryption, byte[] plain, long plainSize) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encryption.encrypt(new ByteArrayInputStream(plain), outputStream, plainSize);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] decryptStream(SegmentedEncryption encryption, byte[] encrypted) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encryption.decrypt(new ByteArrayInputStream(encrypted), outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private byte[] decryptChannel(SegmentedEncryption encryption, byte[] encrypted) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (SeekableByteChannel channel = channel(encrypted)) {
+            encryption.decrypt(channel, outputStream);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private SeekableByteChannel channel(byte[] encrypted) throws IOException {
+        Path file = Files.createTempFile(tempDir, "blob", ".enc");
+        Files.write(file, encrypted);
+        return Files.newByteChannel(file);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.imageproject.controller;
+
+import com.example.imageproject.dto.ImageDownload;
+import com.example.imageproject.service.CustomUserService;
+import com.example.imageproject.service.ImageImportJobService;
+import com.example.imageproject.service.ImageImportService;
+import com.example.imageproject.service.ImageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+@WebMvcTest(ImageController.class)
+@WithMockUser(username = "user", roles = "USER")
+class ImageControllerDownloadTest {
+
+    private static final String ETAG = "\"archive-etag\"";
+    private static final byte[] CONTENT = content(1000);
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private ImageImportService imageImportService;
+
+    @MockBean
+    private ImageImportJobService imageImportJobService;
+
+    @MockBean
+    private CustomUserService customUserService;
+
+    @MockBean
+    private PasswordEncoder passwordEncoder;
+
+    @BeforeEach
+    void setUp() {
+        when(imageService.getImages("user")).thenReturn(download(ETAG));
+        when(imageService.getImageById(eq(7L), eq("user"), isNull())).thenReturn(download("\"image-etag\""));
+    }
+
+    @Test
+    void fullDownloadAdvertisesRanges() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file"));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(ETAG);
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo("1000");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getHeader(HttpHeaders.CONTENT_DISPOSITION)).isEqualTo("attachment; filename=\"images.zip\"");
+        assertThat(response.getContentAsByteArray()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void closedRange() throws Exception {
+        assertPartial(perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=100-199")), 100, 199);
+    }
+
+    @Test
+    void closedRangeIsClippedToTheContent() throws Exception {
+        assertPartial(perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=900-5000")), 900, 999);
+    }
+
+    @Test
+    void openEndedRange() throws Exception {
+        assertPartial(perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=990-")), 990, 999);
+    }
+
+    @Test
+    void suffixRange() throws Exception {
+        assertPartial(perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=-25")), 975, 999);
+    }
+
+    @Test
+    void suffixRangeLongerThanTheContentReturnsEverything() throws Exception {
+        assertPartial(perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=-5000")), 0, 999);
+    }
+
+    @Test
+    void singleByteRange() throws Exception {
+        assertPartial(perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=0-0")), 0, 0);
+    }
+
+    @Test
+    void unsatisfiableRange() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=1000-"));
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */1000");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void multipleRangesReturnTheFullContent() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=0-9,20-29"));
+
+        assertFull(response);
+    }
+
+    @Test
+    void malformedRangeReturnsTheFullContent() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=abc"));
+
+        assertFull(response);
+    }
+
+    @Test
+    void staleIfRangeReturnsTheFullContent() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file")
+                .header(HttpHeaders.RANGE, "bytes=100-199")
+                .header(HttpHeaders.IF_RANGE, "\"older-etag\""));
+
+        assertFull(response);
+    }
+
+    @Test
+    void matchingIfRangeReturnsTheRange() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file")
+                .header(HttpHeaders.RANGE, "bytes=100-199")
+                .header(HttpHeaders.IF_RANGE, ETAG));
+
+        assertPartial(response, 100, 199);
+    }
+
+    @Test
+    void matchingIfNoneMatchIsNotModified() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file").header(HttpHeaders.IF_NONE_MATCH, ETAG));
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(ETAG);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void otherIfNoneMatchReturnsTheContent() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file").header(HttpHeaders.IF_NONE_MATCH, "\"older-etag\""));
+
+        assertFull(response);
+    }
+
+    @Test
+    void downloadWithoutLayoutIgnoresRanges() throws Exception {
+        when(imageService.getImages("user")).thenReturn(ImageDownload.builder()
+                .writer((offset, length, outputStream) -> outputStream.write(CONTENT))
+                .build());
+
+        MockHttpServletResponse response = perform(get("/api/file").header(HttpHeaders.RANGE, "bytes=100-199"));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNull();
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isNull();
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getContentAsByteArray()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void singleImageRange() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file/7").header(HttpHeaders.RANGE, "bytes=-10"));
+
+        assertPartial(response, 990, 999);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"image-etag\"");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_DISPOSITION)).isEqualTo("attachment; filename=\"7.jpg\"");
+    }
+
+    @Test
+    void singleImageNotModified() throws Exception {
+        MockHttpServletResponse response = perform(get("/api/file/7").header(HttpHeaders.IF_NONE_MATCH, "\"image-etag\""));
+
+        assertThat(response.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    void archiveStreamsWithTheExportTimeout() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/file")).andReturn();
+
+        assertThat(result.getRequest().getAsyncContext().getTimeout()).isEqualTo(3600000L);
+    }
+
+    @Test
+    void singleImageKeepsTheDefaultTimeout() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/file/7")).andReturn();
+
+        assertThat(result.getRequest().getAsyncContext().getTimeout()).isEqualTo(90000L);
+    }
+
+    private MockHttpServletResponse perform(RequestBuilder requestBuilder) throws Exception {
+        MvcResult result = mockMvc.perform(requestBuilder).andReturn();
+        // the single image endpoints complete a future first and then stream the body, each step is an async dispatch
+        while (result.getRequest().isAsyncStarted()) {
+            result.getAsyncResult();
+            result = mockMvc.perform(asyncDispatch(result)).andReturn();
+        }
+        return result.getResponse();
+    }
+
+    private static void assertPartial(MockHttpServletResponse response, int start, int end) {
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes " + start + "-" + end + "/1000");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo(Integer.toString(end - start + 1));
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(CONTENT, start, end + 1));
+    }
+
+    private static void assertFull(MockHttpServletResponse response) {
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo("1000");
+        assertThat(response.getContentAsByteArray()).isEqualTo(CONTENT);
+    }
+
+    private static ImageDownload download(String eTag) {
+        return ImageDownload.builder()
+                .eTag(eTag)
+                .contentLength((long) CONTENT.length)
+                .writer((offset, length, outputStream) -> outputStream.write(CONTENT, (int) offset, (int) length))
+                .build();
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.imageproject.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DecryptedImageCacheTest {
+
+    private static final byte[] CONTENT = content(100000);
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void offHeapWriteThroughCachesTheStreamedBytes() throws IOException {
+        DecryptedImageCache cache = new DecryptedImageCache(1 << 20, 1 << 20, true);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+        cache.writeThrough(1L, 7L, 0, CONTENT.length, response, target -> writeInChunks(target, CONTENT));
+
+        assertThat(response.toByteArray()).isEqualTo(CONTENT);
+        DecryptedImageCache.CachedImage cachedImage = cache.get(1L, 7L, 0);
+        assertThat(cachedImage.size()).isEqualTo(CONTENT.length);
+        assertThat(read(cachedImage, 0, CONTENT.length)).isEqualTo(CONTENT);
+        assertThat(read(cachedImage, 5000, 300)).isEqualTo(Arrays.copyOfRange(CONTENT, 5000, 5300));
+        assertThat(cache.getStats().isOffHeap()).isTrue();
+    }
+
+    @Test
+    void contentOfTheWrongSizeIsNotCached() throws IOException {
+        DecryptedImageCache cache = new DecryptedImageCache(1 << 20, 1 << 20, true);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+        cache.writeThrough(1L, 7L, 0, CONTENT.length - 1, response, target -> writeInChunks(target, CONTENT));
+        cache.writeThrough(1L, 8L, 0, CONTENT.length + 1, response, target -> writeInChunks(target, CONTENT));
+
+        assertThat(response.size()).isEqualTo(2 * CONTENT.length);
+        assertThat(cache.get(1L, 7L, 0)).isNull();
+        assertThat(cache.get(1L, 8L, 0)).isNull();
+    }
+
+    @Test
+    void invalidationWaitsForTheCommit() throws IOException {
+        DecryptedImageCache cache = new DecryptedImageCache(1 << 20, 1 << 20, false);
+        cache.writeThrough(1L, 7L, 0, CONTENT.length, new ByteArrayOutputStream(), target -> target.write(CONTENT));
+        TransactionSynchronizationManager.initSynchronization();
+
+        cache.invalidate(7L);
+
+        assertThat(cache.get(1L, 7L, 0)).isNotNull();
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(cache.get(1L, 7L, 0)).isNull();
+    }
+
+    @Test
+    void readOverlappingAnInvalidationIsNotCached() throws IOException {
+        DecryptedImageCache cache = new DecryptedImageCache(1 << 20, 1 << 20, false);
+
+        cache.writeThrough(1L, 7L, 0, CONTENT.length, new ByteArrayOutputStream(), target -> {
+            target.write(CONTENT, 0, 10);
+            cache.invalidateUser(1L);
+            target.write(CONTENT, 10, CONTENT.length - 10);
+        });
+
+        assertThat(cache.get(1L, 7L, 0)).isNull();
+    }
+
+    private static void writeInChunks(OutputStream target, byte[] data) throws IOException {
+        for (int offset = 0; offset < data.length; offset += 4096) {
+            target.write(data, offset, Math.min(4096, data.length - offset));
+        }
+    }
+
+    private static byte[] read(DecryptedImageCache.CachedImage cachedImage, long offset, long length) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        cachedImage.writeTo(offset, length, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.exception.ConversionQueueFullException;
+import com.example.imageproject.exception.ConversionTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageConversionExecutorTest {
+
+    private static final InputStreamSource SLOW = new ByteArrayResource(new byte[0], "slow");
+    private static final InputStreamSource BLOCKED = new ByteArrayResource(new byte[0], "blocked");
+    private static final InputStreamSource FAST = new ByteArrayResource(new byte[0], "fast");
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ImageConversionExecutor executor;
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    void timeWaitingInTheQueueDoesNotCountTowardsTheTimeout() throws Exception {
+        executor = new ImageConversionExecutor(new BlockingResizeEngine(), 1, 4, 1, 10);
+        // two 700 ms conversions keep the third one queued for longer than the one second timeout
+        CompletableFuture<byte[]> first = executor.submit(SLOW, 10, 10, "png");
+        CompletableFuture<byte[]> second = executor.submit(SLOW, 10, 10, "png");
+        CompletableFuture<byte[]> queued = executor.submit(FAST, 10, 10, "png");
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).containsExactly(1);
+        assertThat(second.get(5, TimeUnit.SECONDS)).containsExactly(1);
+        assertThat(queued.get(5, TimeUnit.SECONDS)).containsExactly(2);
+    }
+
+    @Test
+    void runningConversionTimesOut() {
+        executor = new ImageConversionExecutor(new BlockingResizeEngine(), 1, 4, 1, 10);
+
+        CompletableFuture<byte[]> blocked = executor.submit(BLOCKED, 10, 10, "png");
+
+        assertThatThrownBy(() -> blocked.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(ConversionTimeoutException.class);
+    }
+
+    @Test
+    void uploadsAreRejectedButImportsWaitWhenTheQueueIsFull() throws Exception {
+        executor = new ImageConversionExecutor(new BlockingResizeEngine(), 1, 1, 30, 10);
+        CompletableFuture<byte[]> running = executor.submit(BLOCKED, 10, 10, "png");
+        CompletableFuture<byte[]> queued = executor.submit(FAST, 10, 10, "png");
+
+        assertThatThrownBy(() -> executor.submit(FAST, 10, 10, "png").join())
+                .hasCauseInstanceOf(ConversionQueueFullException.class);
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CompletableFuture<Void> imported = CompletableFuture.runAsync(() -> {
+            try {
+                executor.resize(FAST, target, 10, 10, "png");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertThat(imported).isNotDone();
+
+        release.countDown();
+        imported.get(5, TimeUnit.SECONDS);
+        assertThat(target.toByteArray()).containsExactly(2);
+        assertThat(running.get(5, TimeUnit.SECONDS)).containsExactly(1);
+        assertThat(queued.get(5, TimeUnit.SECONDS)).containsExactly(2);
+    }
+
+    private class BlockingResizeEngine implements ResizeEngine {
+
+        @Override
+        public void resize(InputStreamSource source, OutputStream target, int maxWidth, int maxHeight, String formatName) throws IOException {
+            if (source == SLOW || source == BLOCKED) {
+                try {
+                    if (source == SLOW) {
+                        Thread.sleep(700);
+                    } else {
+                        release.await();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                target.write(1);
+            } else {
+                target.write(2);
+            }
+        }
+
+        @Override
+        public void fill(InputStreamSource source, OutputStream target, int width, int height, String formatName) throws IOException {
+            resize(source, target, width, height, formatName);
+        }
+    }
+}
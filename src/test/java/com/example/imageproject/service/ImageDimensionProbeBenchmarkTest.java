@@ -0,0 +1,55 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.Benchmark;
+import com.example.imageproject.dto.ImageDimensions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Header-only probe against decoding the whole image with ImageIO.read, for the 5000x5000 upload check.
+@Tag("benchmark")
+class ImageDimensionProbeBenchmarkTest {
+
+    private static final int SIZE = 5000;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void probeAgainstImageIoRead() throws Exception {
+        ImageDimensionProbe probe = new ImageDimensionProbe();
+        Benchmark.print("%dx%d image, per call, allocation of the calling thread", SIZE, SIZE);
+        Benchmark.print("%-5s %8s %14s %14s %16s %16s", "type", "MB", "probe (ms)", "read (ms)", "probe (bytes)", "read (bytes)");
+        for (String format : new String[]{"png", "jpg"}) {
+            Path file = root.resolve("image." + format);
+            ImageIO.write(image(), format, file.toFile());
+            ImageDimensions dimensions = probe.probe(file);
+            assertThat(dimensions.getWidth()).isEqualTo(SIZE);
+
+            Benchmark.Result probed = Benchmark.run(() -> probe.probe(file));
+            Benchmark.Result read = Benchmark.run(() -> ImageIO.read(file.toFile()));
+            Benchmark.print("%-5s %8.2f %14.3f %14.1f %16d %16d", format, Files.size(file) / 1048576.0,
+                    probed.millisPerOp(), read.millisPerOp(), probed.allocatedBytesPerOp(), read.allocatedBytesPerOp());
+        }
+    }
+
+    // a gradient with noisy blocks, so the files compress to a realistic size rather than a trivial one
+    private static BufferedImage image() {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(SIZE);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                image.setRGB(x, y, (x * 255 / SIZE) << 16 | (y * 255 / SIZE) << 8 | ((x / 50 + y / 50) % 2 == 0 ? random.nextInt(32) : 128));
+            }
+        }
+        return image;
+    }
+}
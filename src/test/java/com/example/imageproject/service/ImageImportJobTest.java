@@ -0,0 +1,127 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.dto.ImageImportFileResult;
+import com.example.imageproject.dto.ImageImportJobInfo;
+import com.example.imageproject.dto.ImageImportJobStatus;
+import com.example.imageproject.dto.ImageImportStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageImportJobTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void keepsCountersAndACappedListOfIssues() {
+        ImageImportJob job = job(2);
+        job.start();
+
+        job.add(result("a.jpg", ImageImportStatus.UPLOADED), 10);
+        job.add(result("b.jpg", ImageImportStatus.RESIZED), 10);
+        job.add(result("c.gif", ImageImportStatus.SKIPPED), 10);
+        job.add(result("d.jpg", ImageImportStatus.FAILED), 10);
+        job.add(result("e.jpg", ImageImportStatus.FAILED), 10);
+        job.addAlreadyImported(10);
+        ImageImportJobInfo info = job.toInfo();
+
+        assertThat(info.getProcessed()).isEqualTo(6);
+        assertThat(info.getSucceeded()).isEqualTo(2);
+        assertThat(info.getSkipped()).isEqualTo(1);
+        assertThat(info.getFailed()).isEqualTo(2);
+        assertThat(info.getAlreadyImported()).isEqualTo(1);
+        assertThat(info.getBytesProcessed()).isEqualTo(60);
+        assertThat(info.getIssues()).extracting(ImageImportFileResult::getFileName).containsExactly("c.gif", "d.jpg");
+        assertThat(info.getOmittedIssues()).isEqualTo(1);
+    }
+
+    @Test
+    void reportHoldsEveryResultAndCanBeReadWhileRunning() throws Exception {
+        ImageImportJob job = job(0);
+        job.start();
+        job.add(result("a.jpg", ImageImportStatus.UPLOADED), 1);
+
+        assertThat(report(job)).extracting(ImageImportFileResult::getFileName).containsExactly("a.jpg");
+
+        job.add(result("b.gif", ImageImportStatus.SKIPPED), 1);
+        job.finish(ImageImportJobStatus.COMPLETED, null);
+
+        List<ImageImportFileResult> report = report(job);
+        assertThat(report).extracting(ImageImportFileResult::getFileName).containsExactly("a.jpg", "b.gif");
+        assertThat(report.get(1).getStatus()).isEqualTo(ImageImportStatus.SKIPPED);
+        assertThat(job.toInfo().getIssues()).isEmpty();
+        assertThat(job.toInfo().getOmittedIssues()).isEqualTo(1);
+    }
+
+    @Test
+    void deleteReportRemovesTheFile() throws Exception {
+        ImageImportJob job = job(10);
+        job.start();
+        job.add(result("a.jpg", ImageImportStatus.UPLOADED), 1);
+        job.finish(ImageImportJobStatus.COMPLETED, null);
+
+        job.deleteReport();
+
+        assertThat(Files.exists(root.resolve("report.ndjson"))).isFalse();
+    }
+
+    @Test
+    void reportIsNotDeletedWhileItIsRead() throws Exception {
+        ImageImportJob job = job(10);
+        job.start();
+        job.add(result("a.jpg", ImageImportStatus.UPLOADED), 1);
+        job.finish(ImageImportJobStatus.COMPLETED, null);
+        boolean[] deletedWhileReading = new boolean[1];
+
+        job.writeReport(new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                deletedWhileReading[0] |= job.deleteReportIfUnread();
+            }
+        });
+
+        assertThat(deletedWhileReading[0]).isFalse();
+        assertThat(Files.exists(root.resolve("report.ndjson"))).isTrue();
+        assertThat(job.deleteReportIfUnread()).isTrue();
+        assertThat(Files.exists(root.resolve("report.ndjson"))).isFalse();
+    }
+
+    private ImageImportJob job(int maxIssues) {
+        return new ImageImportJob("job", "user", root.toString(), "*", false, root.resolve("report.ndjson"), maxIssues);
+    }
+
+    private static List<ImageImportFileResult> report(ImageImportJob job) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        job.writeReport(outputStream);
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<ImageImportFileResult> results = new ArrayList<>();
+        for (String line : outputStream.toString(StandardCharsets.UTF_8).split("\n")) {
+            results.add(objectMapper.readValue(line, ImageImportFileResult.class));
+        }
+        return results;
+    }
+
+    private static ImageImportFileResult result(String fileName, ImageImportStatus status) {
+        return ImageImportFileResult.builder()
+                .fileName(fileName)
+                .status(status)
+                .message(status.name())
+                .build();
+    }
+}
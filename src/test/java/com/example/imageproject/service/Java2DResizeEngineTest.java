@@ -0,0 +1,131 @@
+package com.example.imageproject.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class Java2DResizeEngineTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final Java2DResizeEngine resizeEngine = new Java2DResizeEngine(true);
+
+    @ParameterizedTest
+    @CsvSource({
+            "1200, 400, 100, 100",
+            "400, 1200, 100, 100",
+            "1000, 1000, 300, 50",
+            "1000, 1000, 50, 300",
+            "64, 48, 100, 60",
+            "1201, 799, 333, 127"
+    })
+    void fillCropsToExactlyTheRequestedSize(int sourceWidth, int sourceHeight, int width, int height) throws Exception {
+        Path source = write(sourceWidth, sourceHeight);
+
+        BufferedImage filled = fill(source, width, height);
+
+        assertThat(filled.getWidth()).isEqualTo(width);
+        assertThat(filled.getHeight()).isEqualTo(height);
+    }
+
+    @Test
+    void fillKeepsTheCentre() throws Exception {
+        // a wide image with red side bands and a blue centre square, only the centre survives a square crop
+        BufferedImage image = new BufferedImage(1200, 400, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 1200, 400);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(400, 0, 400, 400);
+        graphics.dispose();
+        Path source = tempDir.resolve("bands.png");
+        ImageIO.write(image, "png", source.toFile());
+
+        BufferedImage filled = fill(source, 100, 100);
+
+        for (int x : new int[]{2, 50, 97}) {
+            assertThat(new Color(filled.getRGB(x, 50))).isEqualTo(Color.BLUE);
+        }
+    }
+
+    @Test
+    void resizeStillOnlyFitsInside() throws Exception {
+        Path source = write(1200, 400);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        resizeEngine.resize(new FileSystemResource(source), outputStream, 100, 100, "png");
+
+        BufferedImage resized = ImageIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertThat(resized.getWidth()).isEqualTo(100);
+        assertThat(resized.getHeight()).isEqualTo(33);
+    }
+
+    @Test
+    void interruptedResizeIsAborted() throws Exception {
+        Path source = write(2000, 2000);
+        // the conversion timeout interrupts the worker, which ImageIO itself would ignore
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> resizeEngine.resize(new FileSystemResource(source), new ByteArrayOutputStream(), 100, 100, "png"))
+                    .isInstanceOf(InterruptedIOException.class);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    void streamSourcesAreDecodedWithoutAFile() throws Exception {
+        // a decrypting stream is not a file resource, it is read through an in-memory image stream
+        InputStreamSource source = new ByteArrayResource(Files.readAllBytes(write(1200, 400)));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        resizeEngine.resize(source, outputStream, 100, 100, "png");
+        BufferedImage filled = fill(source, 50, 50);
+
+        BufferedImage resized = ImageIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertThat(resized.getWidth()).isEqualTo(100);
+        assertThat(resized.getHeight()).isEqualTo(33);
+        assertThat(filled.getWidth()).isEqualTo(50);
+        assertThat(filled.getHeight()).isEqualTo(50);
+    }
+
+    private BufferedImage fill(Path source, int width, int height) throws IOException {
+        return fill(new FileSystemResource(source), width, height);
+    }
+
+    private BufferedImage fill(InputStreamSource source, int width, int height) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        resizeEngine.fill(source, outputStream, width, height, "png");
+        return ImageIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    private Path write(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.GREEN);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        Path source = tempDir.resolve(width + "x" + height + ".png");
+        ImageIO.write(image, "png", source.toFile());
+        return source;
+    }
+}
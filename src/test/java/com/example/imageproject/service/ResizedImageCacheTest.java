@@ -0,0 +1,190 @@
+package com.example.imageproject.service;
+
+import com.example.imageproject.config.SegmentedEncryption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResizedImageCacheTest {
+
+    private static final int VARIANT_SIZE = 3000;
+    // room for two encrypted variants: header, three 1 KiB segments and their tags each
+    private static final long MAX_BYTES = 2 * (VARIANT_SIZE + 76 + 3 * 16) + 100;
+
+    private static final String A = ResizedImageCache.key(1L, 10L, 100L, "64x-contain");
+    private static final String B = ResizedImageCache.key(1L, 11L, 101L, "64x-contain");
+    private static final String C = ResizedImageCache.key(2L, null, 102L, "64x-contain");
+
+    @TempDir
+    Path root;
+
+    private SegmentedEncryption segmentedEncryption;
+    private ResizedImageCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        segmentedEncryption = new SegmentedEncryption(Base64.getEncoder().encodeToString(new byte[32]), 1024, 1, Long.MAX_VALUE);
+        cache = new ResizedImageCache(segmentedEncryption, root.toString(), MAX_BYTES);
+    }
+
+    @AfterEach
+    void shutdown() {
+        segmentedEncryption.shutdown();
+    }
+
+    @Test
+    void evictionDuringReadKeepsTheFileUntilTheReadIsDone() throws Exception {
+        byte[] data = content(1);
+        ResizedImageCache.CachedVariant variant = cache.get(A, () -> CompletableFuture.completedFuture(data)).join();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        long[] filesDuringRead = new long[1];
+        OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                if (received.size() == 0) {
+                    cache.get(B, () -> CompletableFuture.completedFuture(content(2))).join();
+                    cache.get(C, () -> CompletableFuture.completedFuture(content(3))).join();
+                    filesDuringRead[0] = variantFiles();
+                }
+                received.write(bytes, offset, length);
+            }
+        };
+
+        assertThat(variant.writeTo(0, VARIANT_SIZE, outputStream)).isTrue();
+
+        assertThat(received.toByteArray()).isEqualTo(data);
+        assertThat(filesDuringRead[0]).isEqualTo(3);
+        assertThat(variantFiles()).isEqualTo(2);
+    }
+
+    @Test
+    void evictedVariantIsNotRead() throws Exception {
+        ResizedImageCache.CachedVariant variant = cache.get(A, () -> CompletableFuture.completedFuture(content(1))).join();
+        cache.get(B, () -> CompletableFuture.completedFuture(content(2))).join();
+        cache.get(C, () -> CompletableFuture.completedFuture(content(3))).join();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertThat(variant.writeTo(0, VARIANT_SIZE, outputStream)).isFalse();
+        assertThat(outputStream.size()).isZero();
+        assertThat(variantFiles()).isEqualTo(2);
+    }
+
+    @Test
+    void concurrentRequestsShareOneGeneration() throws Exception {
+        AtomicInteger generations = new AtomicInteger();
+        CompletableFuture<byte[]> generated = new CompletableFuture<>();
+        CompletableFuture<ResizedImageCache.CachedVariant> first = cache.get(A, () -> {
+            generations.incrementAndGet();
+            return generated;
+        });
+        CompletableFuture<ResizedImageCache.CachedVariant> second = cache.get(A, () -> {
+            generations.incrementAndGet();
+            return CompletableFuture.completedFuture(content(9));
+        });
+        generated.complete(content(1));
+
+        assertThat(generations).hasValue(1);
+        assertThat(first.join()).isSameAs(second.join());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertThat(second.join().writeTo(100, 50, outputStream)).isTrue();
+        assertThat(outputStream.toByteArray()).isEqualTo(Arrays.copyOfRange(content(1), 100, 150));
+    }
+
+    @Test
+    void variantsSurviveARestart() throws Exception {
+        byte[] data = content(1);
+        cache.get(A, () -> CompletableFuture.completedFuture(data)).join();
+
+        ResizedImageCache restarted = new ResizedImageCache(segmentedEncryption, root.toString(), MAX_BYTES);
+        ResizedImageCache.CachedVariant variant = restarted.get(A, () -> {
+            throw new AssertionError("the variant must be loaded from disk");
+        }).join();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertThat(variant.writeTo(0, VARIANT_SIZE, outputStream)).isTrue();
+        assertThat(outputStream.toByteArray()).isEqualTo(data);
+    }
+
+    @Test
+    void invalidationRemovesTheVariantsOfAnImageContentOrUser() throws Exception {
+        cache.get(A, () -> CompletableFuture.completedFuture(content(1))).join();
+        cache.get(C, () -> CompletableFuture.completedFuture(content(3))).join();
+
+        cache.invalidateContent(10L);
+        assertThat(variantFiles()).isEqualTo(1);
+        cache.invalidateImage(102L);
+        assertThat(variantFiles()).isZero();
+
+        cache.get(A, () -> CompletableFuture.completedFuture(content(1))).join();
+        cache.get(B, () -> CompletableFuture.completedFuture(content(2))).join();
+        cache.invalidateUser(2L);
+        assertThat(variantFiles()).isEqualTo(2);
+        cache.invalidateUser(1L);
+        assertThat(variantFiles()).isZero();
+
+        AtomicInteger generations = new AtomicInteger();
+        cache.get(A, () -> {
+            generations.incrementAndGet();
+            return CompletableFuture.completedFuture(content(1));
+        }).join();
+        assertThat(generations).hasValue(1);
+        assertThat(new ResizedImageCache(segmentedEncryption, root.toString(), MAX_BYTES).get(A, () -> {
+            throw new AssertionError("only the invalidated variants are removed from disk");
+        }).join().getPlainSize()).isEqualTo(VARIANT_SIZE);
+    }
+
+    @Test
+    void variantGeneratedDuringAnInvalidationIsNotKept() throws Exception {
+        CompletableFuture<byte[]> generated = new CompletableFuture<>();
+        CompletableFuture<ResizedImageCache.CachedVariant> pending = cache.get(A, () -> generated);
+
+        cache.invalidateImage(100L);
+        assertThat(pending).isNotDone();
+        cache.invalidateContent(10L);
+        generated.complete(content(1));
+
+        assertThat(pending.join().writeTo(0, VARIANT_SIZE, new ByteArrayOutputStream())).isFalse();
+        assertThat(variantFiles()).isZero();
+        AtomicInteger generations = new AtomicInteger();
+        cache.get(A, () -> {
+            generations.incrementAndGet();
+            return CompletableFuture.completedFuture(content(1));
+        }).join();
+        assertThat(generations).hasValue(1);
+        assertThat(variantFiles()).isEqualTo(1);
+    }
+
+    private long variantFiles() {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(Files::isRegularFile).count();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] content(int seed) {
+        byte[] content = new byte[VARIANT_SIZE];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.imageproject.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZipArchiveWriterTest {
+
+    private static final LocalDateTime MODIFIED = LocalDateTime.of(2024, 5, 17, 13, 45, 30);
+    private static final long FOUR_GIB = 4L * 1024 * 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void storedAndDeflatedEntriesReadBack() throws Exception {
+        List<TestEntry> entries = entries();
+        byte[] archive = write(entries, new ByteArrayOutputStream(), 0, Long.MAX_VALUE).toByteArray();
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (TestEntry expected : entries) {
+                ZipEntry entry = zipInputStream.getNextEntry();
+                assertThat(entry.getName()).isEqualTo(expected.name);
+                assertThat(entry.getMethod()).isEqualTo(expected.method);
+                assertThat(zipInputStream.readAllBytes()).isEqualTo(expected.content);
+                assertThat(entry.getCrc()).isEqualTo(expected.crc32);
+            }
+            assertThat(zipInputStream.getNextEntry()).isNull();
+        }
+
+        Path file = tempDir.resolve("archive.zip");
+        Files.write(file, archive);
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            assertThat(zipFile.size()).isEqualTo(entries.size());
+            for (TestEntry expected : entries) {
+                ZipEntry entry = zipFile.getEntry(expected.name);
+                assertThat(entry.getMethod()).isEqualTo(expected.method);
+                assertThat(entry.getSize()).isEqualTo(expected.content.length);
+                assertThat(entry.getCompressedSize()).isEqualTo(expected.stored.length);
+                assertThat(entry.getTimeLocal()).isEqualTo(MODIFIED);
+                try (var inputStream = zipFile.getInputStream(entry)) {
+                    assertThat(inputStream.readAllBytes()).isEqualTo(expected.content);
+                }
+            }
+        }
+    }
+
+    @Test
+    void zip64EntryCount() throws Exception {
+        int count = 0xFFFF + 10;
+        Path file = tempDir.resolve("many.zip");
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            ZipArchiveWriter writer = new ZipArchiveWriter(outputStream);
+            for (int i = 0; i < count; i++) {
+                byte[] content = Integer.toString(i).getBytes();
+                writer.writeStoredEntry(i + ".jpg", MODIFIED, content.length, crc32(content),
+                        (offset, length, out) -> out.write(content, (int) offset, (int) length));
+            }
+            writer.finish();
+            assertThat(writer.length()).isEqualTo(Files.size(file));
+        }
+
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            assertThat(zipFile.size()).isEqualTo(count);
+            ZipEntry last = zipFile.getEntry((count - 1) + ".jpg");
+            try (var inputStream = zipFile.getInputStream(last)) {
+                assertThat(new String(inputStream.readAllBytes())).isEqualTo(Integer.toString(count - 1));
+            }
+        }
+        int read = 0;
+        try (ZipInputStream zipInputStream = new ZipInputStream(Files.newInputStream(file))) {
+            while (zipInputStream.getNextEntry() != null) {
+                assertThat(new String(zipInputStream.readAllBytes())).isEqualTo(Integer.toString(read));
+                read++;
+            }
+        }
+        assertThat(read).isEqualTo(count);
+    }
+
+    @Test
+    void zip64SizesAndOffsetsPastFourGibibytes() throws Exception {
+        // the large entry is skipped in a sparse file instead of being written, only the headers are real
+        long bigSize = FOUR_GIB + 12345;
+        byte[] small = "after the big entry".getBytes();
+        Path file = tempDir.resolve("large.zip");
+        long length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream outputStream = new ChannelOutputStream(channel);
+            ZipArchiveWriter writer = new ZipArchiveWriter(outputStream);
+            writer.writeStoredEntry("big.jpg", MODIFIED, bigSize, 0x12345678L,
+                    (offset, skipped, out) -> channel.position(channel.position() + skipped));
+            writer.writeStoredEntry("small.jpg", MODIFIED, small.length, crc32(small),
+                    (offset, part, out) -> out.write(small, (int) offset, (int) part));
+            writer.finish();
+            length = writer.length();
+        }
+        assertThat(length).isEqualTo(Files.size(file)).isGreaterThan(FOUR_GIB);
+
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            assertThat(zipFile.size()).isEqualTo(2);
+            ZipEntry big = zipFile.getEntry("big.jpg");
+            assertThat(big.getSize()).isEqualTo(bigSize);
+            assertThat(big.getCompressedSize()).isEqualTo(bigSize);
+            assertThat(big.getCrc()).isEqualTo(0x12345678L);
+            try (var inputStream = zipFile.getInputStream(zipFile.getEntry("small.jpg"))) {
+                assertThat(inputStream.readAllBytes()).isEqualTo(small);
+            }
+        }
+
+        // a writer limited to an empty range measures the same archive without writing anything
+        ByteArrayOutputStream nothing = new ByteArrayOutputStream();
+        ZipArchiveWriter measure = new ZipArchiveWriter(nothing, 0, 0);
+        measure.writeStoredEntry("big.jpg", MODIFIED, bigSize, 0x12345678L, (offset, part, out) -> {
+            throw new AssertionError("data outside of the range must not be written");
+        });
+        measure.writeStoredEntry("small.jpg", MODIFIED, small.length, crc32(small), (offset, part, out) -> {
+            throw new AssertionError("data outside of the range must not be written");
+        });
+        measure.finish();
+        assertThat(measure.length()).isEqualTo(length);
+        assertThat(nothing.size()).isZero();
+    }
+
+    @Test
+    void rangeLimitedWritersConcatenateToTheFullArchive() throws Exception {
+        List<TestEntry> entries = entries();
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        long length = write(entries, full, 0, Long.MAX_VALUE).size();
+        byte[] archive = full.toByteArray();
+        assertThat(length).isEqualTo(archive.length);
+
+        ByteArrayOutputStream measured = new ByteArrayOutputStream();
+        ZipArchiveWriter measure = new ZipArchiveWriter(measured, 0, 0);
+        writeEntries(measure, entries);
+        measure.finish();
+        assertThat(measure.length()).isEqualTo(archive.length);
+        assertThat(measured.size()).isZero();
+
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+            long offset = 0;
+            while (offset < archive.length) {
+                long part = round == 0 ? 1 : 1 + random.nextInt(archive.length / 3);
+                write(entries, concatenated, offset, part);
+                assertThat(concatenated.size()).isEqualTo(Math.min(archive.length, offset + part));
+                offset += part;
+            }
+            assertThat(concatenated.toByteArray()).isEqualTo(archive);
+        }
+
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        write(entries, tail, archive.length - 10, Long.MAX_VALUE);
+        assertThat(tail.toByteArray()).isEqualTo(Arrays.copyOfRange(archive, archive.length - 10, archive.length));
+    }
+
+    @Test
+    void mismatchingChecksumOrSizeFails() {
+        byte[] content = "content".getBytes();
+        ZipArchiveWriter writer = new ZipArchiveWriter(new ByteArrayOutputStream());
+
+        assertThatThrownBy(() -> writer.writeEntry("crc.jpg", MODIFIED, ZipArchiveWriter.STORED, content.length, content.length,
+                crc32(content) + 1, out -> out.write(content))).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> writer.writeEntry("size.jpg", MODIFIED, ZipArchiveWriter.STORED, content.length + 1, content.length + 1,
+                crc32(content), out -> out.write(content))).isInstanceOf(IOException.class);
+    }
+
+    private static ByteArrayOutputStream write(List<TestEntry> entries, ByteArrayOutputStream outputStream, long offset, long length)
+            throws IOException {
+        ZipArchiveWriter writer = new ZipArchiveWriter(outputStream, offset, length);
+        writeEntries(writer, entries);
+        writer.finish();
+        return outputStream;
+    }
+
+    private static void writeEntries(ZipArchiveWriter writer, List<TestEntry> entries) throws IOException {
+        for (TestEntry entry : entries) {
+            if (entry.method == ZipArchiveWriter.STORED && entry.ranged) {
+                writer.writeStoredEntry(entry.name, MODIFIED, entry.content.length, entry.crc32,
+                        (offset, length, out) -> out.write(entry.content, (int) offset, (int) length));
+            } else {
+                writer.writeEntry(entry.name, MODIFIED, entry.method, entry.content.length, entry.stored.length, entry.crc32,
+                        out -> out.write(entry.stored));
+            }
+        }
+    }
+
+    private static List<TestEntry> entries() {
+        Random random = new Random(1);
+        List<TestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            byte[] content = new byte[i * 997];
+            if (i % 2 == 0) {
+                random.nextBytes(content);
+            } else {
+                Arrays.fill(content, (byte) i);
+            }
+            int method = i % 3 == 0 ? ZipArchiveWriter.DEFLATED : ZipArchiveWriter.STORED;
+            entries.add(new TestEntry("image-" + i + (i == 5 ? "-árvíztűrő" : "") + ".jpg", method, i % 2 == 1, content));
+        }
+        return entries;
+    }
+
+    private static long crc32(byte[] content) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+        return crc32.getValue();
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            outputStream.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return outputStream.toByteArray();
+    }
+
+
+    private static class TestEntry {
+        private final String name;
+        private final int method;
+        private final boolean ranged;
+        private final byte[] content;
+        private final byte[] stored;
+        private final long crc32;
+
+        private TestEntry(String name, int method, boolean ranged, byte[] content) {
+            this.name = name;
+            this.method = method;
+            this.ranged = ranged;
+            this.content = content;
+            this.stored = method == ZipArchiveWriter.DEFLATED ? deflate(content) : content;
+            this.crc32 = crc32(content);
+        }
+    }
+
+    private static class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+
+        private ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}